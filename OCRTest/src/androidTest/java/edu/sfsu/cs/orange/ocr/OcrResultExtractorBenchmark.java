@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Rect;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.googlecode.leptonica.android.Pixa;
+import com.googlecode.tesseract.android.ResultIterator;
+import com.googlecode.tesseract.android.TessBaseAPI;
+import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
+
+/**
+ * Compares OcrResultExtractor with the calls it replaced, which read the confidences and each level
+ * of bounding boxes from the engine separately, each one walking the page layout again in native
+ * code. Both are timed on the same recognition of each frame from {@link OcrTestData}, taking turns,
+ * once for the word boxes that continuous recognition needs by default and once for every level
+ * that the single-shot recognition used to read.
+ *
+ * Run with ./gradlew connectedAndroidTest, and read the results from the log under the tag
+ * OcrResultExtractorBenchmark.
+ */
+public class OcrResultExtractorBenchmark extends InstrumentationTestCase {
+
+  private static final String TAG = OcrResultExtractorBenchmark.class.getSimpleName();
+
+  /** Extractions timed with each approach, per frame. */
+  private static final int REPETITIONS = 20;
+
+  private static final int ALL_ITERATOR_LEVELS = BoundingBoxes.maskOf(BoundingBoxes.REGION)
+      | BoundingBoxes.maskOf(BoundingBoxes.TEXTLINE) | BoundingBoxes.maskOf(BoundingBoxes.WORD)
+      | BoundingBoxes.maskOf(BoundingBoxes.CHARACTER);
+
+  private TessBaseAPI baseApi;
+  private List<OcrTestData.Frame> frames;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    String dataPath = OcrTestData.getDataPath(getInstrumentation().getTargetContext());
+    assertNotNull("Start the app once with English as the source language to install its data",
+        dataPath);
+    frames = OcrTestData.getFrames(getInstrumentation().getTargetContext());
+    baseApi = new TessBaseAPI();
+    assertTrue(baseApi.init(dataPath, OcrTestData.LANGUAGE, TessBaseAPI.OEM_TESSERACT_ONLY));
+    baseApi.setPageSegMode(TessBaseAPI.PageSegMode.PSM_AUTO);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    baseApi.end();
+    super.tearDown();
+  }
+
+  public void testWordBoxes() {
+    compare("Word boxes", OcrResult.ANNOTATED_LAYERS);
+  }
+
+  public void testAllIteratorLevels() {
+    compare("All levels", ALL_ITERATOR_LEVELS);
+  }
+
+  private void compare(String name, int levels) {
+    long singleWalkTime = 0;
+    long separateCallsTime = 0;
+    int words = 0;
+    byte[] luminance = null;
+    for (OcrTestData.Frame frame : frames) {
+      PlanarYUVLuminanceSource source = frame.getFramingSource();
+      luminance = source.copyMatrix(luminance);
+      baseApi.setImage(luminance, source.getWidth(), source.getHeight(), 1, source.getWidth());
+      baseApi.getUTF8Text();
+
+      // The first extraction of a recognition is not timed, in case either approach fills in some
+      // state in the engine that the other then gets to reuse
+      OcrResult result = new OcrResult();
+      OcrResultExtractor.extract(baseApi, result, levels);
+      assertEquals("Word count", baseApi.wordConfidences().length,
+          result.getWordConfidences().length);
+      words += result.getWordConfidences().length;
+
+      for (int i = 0; i < REPETITIONS; i++) {
+        long start = System.nanoTime();
+        OcrResultExtractor.extract(baseApi, new OcrResult(), levels);
+        singleWalkTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        extractSeparately(levels);
+        separateCallsTime += System.nanoTime() - start;
+      }
+      baseApi.clear();
+    }
+    assertTrue("No words were recognized", words > 0);
+    int extractions = frames.size() * REPETITIONS;
+    Log.i(TAG, name + ", " + words + " words in " + frames.size() + " frames: single walk "
+        + singleWalkTime / 1000 / extractions + " us, separate calls "
+        + separateCallsTime / 1000 / extractions + " us per frame");
+  }
+
+  /** Reads the confidences and boxes the way recognition did before OcrResultExtractor. */
+  private void extractSeparately(int levels) {
+    baseApi.wordConfidences();
+    baseApi.meanConfidence();
+    if ((levels & BoundingBoxes.maskOf(BoundingBoxes.REGION)) != 0) {
+      readBoxes(baseApi.getRegions());
+    }
+    if ((levels & BoundingBoxes.maskOf(BoundingBoxes.TEXTLINE)) != 0) {
+      readBoxes(baseApi.getTextlines());
+    }
+    if ((levels & BoundingBoxes.maskOf(BoundingBoxes.WORD)) != 0) {
+      readBoxes(baseApi.getWords());
+    }
+    if ((levels & BoundingBoxes.maskOf(BoundingBoxes.CHARACTER)) != 0) {
+      List<Rect> characterBoxes = new ArrayList<Rect>();
+      ResultIterator iterator = baseApi.getResultIterator();
+      iterator.begin();
+      do {
+        int[] box = iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL);
+        characterBoxes.add(new Rect(box[0], box[1], box[2], box[3]));
+      } while (iterator.next(PageIteratorLevel.RIL_SYMBOL));
+      iterator.delete();
+    }
+  }
+
+  private static List<Rect> readBoxes(Pixa pixa) {
+    List<Rect> boxes = pixa.getBoxRects();
+    pixa.recycle();
+    return boxes;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Environment;
+
+/**
+ * Language data and preview frames for the instrumentation tests and benchmarks, which run against
+ * the real Tesseract engine on the device.
+ *
+ * The language data is the one the app itself installs, so the app must have been started once with
+ * English as the source language before these are run.
+ *
+ * Preview frames are read from the "frames" directory in the app's external files directory, where
+ * frames recorded from the camera can be pushed with adb. Each file holds one NV21 frame and is
+ * named for the preview size, as in 1280x720-01.nv21. Without any recorded frames, frames are drawn
+ * instead: lines of black text on white, filling the framing rectangle of a 1280x720 preview.
+ */
+public final class OcrTestData {
+
+  /** Language code of the data the tests recognize with. */
+  public static final String LANGUAGE = CaptureActivity.DEFAULT_SOURCE_LANGUAGE_CODE;
+
+  /** Preview size of the drawn frames, a common one for the back camera. */
+  public static final int FRAME_WIDTH = 1280;
+  public static final int FRAME_HEIGHT = 720;
+
+  private static final String FRAMES_DIRECTORY = "frames";
+  private static final String FRAME_SUFFIX = ".nv21";
+
+  /** Text of the drawn frames, one array of lines per frame. */
+  private static final String[][] FRAME_TEXT = {
+    { "The quick brown fox", "jumps over the lazy dog" },
+    { "Open 9am to 5pm", "Monday to Friday" },
+    { "No parking", "Tow away zone" },
+    { "Exit 24B", "San Francisco 12 mi" },
+    { "Fresh bread daily", "Sourdough $4.50" },
+    { "Please keep off", "the grass" },
+    { "Platform 3", "Trains to Oakland" },
+    { "Sale ends Sunday", "Up to 40% off" },
+  };
+
+  private OcrTestData() {
+  }
+
+  /**
+   * @return Parent directory of the tessdata directory, for TessBaseAPI.init(), or null if the
+   *         language data has not been installed
+   */
+  public static String getDataPath(Context context) {
+    File storageDirectory = context.getExternalFilesDir(Environment.MEDIA_MOUNTED);
+    if (storageDirectory == null) {
+      return null;
+    }
+    File dataFile = new File(storageDirectory, "tessdata" + File.separator + LANGUAGE
+        + ".traineddata");
+    return dataFile.exists() ? storageDirectory.getAbsolutePath() + File.separator : null;
+  }
+
+  /**
+   * @return The recorded preview frames, or drawn ones if none have been recorded
+   */
+  public static List<Frame> getFrames(Context context) throws IOException {
+    List<Frame> frames = readRecordedFrames(context);
+    if (frames.isEmpty()) {
+      for (String[] lines : FRAME_TEXT) {
+        frames.add(drawFrame(FRAME_WIDTH, FRAME_HEIGHT, lines));
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * @return A frame holding the given lines of black text on white, in the framing rectangle
+   */
+  public static Frame drawFrame(int width, int height, String[] lines) {
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    canvas.drawColor(Color.WHITE);
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setColor(Color.BLACK);
+    float lineHeight = height / 3 / (lines.length + 1);
+    paint.setTextSize(lineHeight * 0.6f);
+    float left = width / 5 + lineHeight / 2;
+    float top = height / 3 + lineHeight;
+    for (int i = 0; i < lines.length; i++) {
+      canvas.drawText(lines[i], left, top + i * lineHeight, paint);
+    }
+
+    int[] pixels = new int[width * height];
+    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+    bitmap.recycle();
+
+    // NV21: the luminance plane, then the chroma at a quarter of the resolution, left neutral here
+    byte[] data = new byte[width * height * 3 / 2];
+    for (int i = 0; i < pixels.length; i++) {
+      int pixel = pixels[i];
+      int r = (pixel >> 16) & 0xff;
+      int g = (pixel >> 8) & 0xff;
+      int b = pixel & 0xff;
+      data[i] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+    }
+    Arrays.fill(data, pixels.length, data.length, (byte) 128);
+    return new Frame(data, width, height);
+  }
+
+  /**
+   * @return The luminance of a centered crop of an NV21 frame, about the size of the framing
+   *         rectangle that CameraManager sets up by default
+   */
+  public static PlanarYUVLuminanceSource getFramingSource(byte[] data, int width, int height) {
+    int cropWidth = width * 3 / 5;
+    int cropHeight = height / 3;
+    return new PlanarYUVLuminanceSource(data, width, height, (width - cropWidth) / 2,
+        (height - cropHeight) / 2, cropWidth, cropHeight, false);
+  }
+
+  private static List<Frame> readRecordedFrames(Context context) throws IOException {
+    List<Frame> frames = new ArrayList<Frame>();
+    File storageDirectory = context.getExternalFilesDir(Environment.MEDIA_MOUNTED);
+    File[] files = storageDirectory == null ? null
+        : new File(storageDirectory, FRAMES_DIRECTORY).listFiles();
+    if (files == null) {
+      return frames;
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.endsWith(FRAME_SUFFIX)) {
+        continue;
+      }
+      String size = name.substring(0, name.indexOf('-') > 0 ? name.indexOf('-')
+          : name.length() - FRAME_SUFFIX.length());
+      int separator = size.indexOf('x');
+      int width = Integer.parseInt(size.substring(0, separator));
+      int height = Integer.parseInt(size.substring(separator + 1));
+      byte[] data = new byte[width * height * 3 / 2];
+      InputStream inputStream = new FileInputStream(file);
+      try {
+        int offset = 0;
+        int n;
+        while (offset < data.length
+            && (n = inputStream.read(data, offset, data.length - offset)) != -1) {
+          offset += n;
+        }
+        if (offset < data.length) {
+          throw new IOException(name + " is too short for a " + size + " frame");
+        }
+      } finally {
+        inputStream.close();
+      }
+      frames.add(new Frame(data, width, height));
+    }
+    return frames;
+  }
+
+  /** One NV21 preview frame. */
+  public static final class Frame {
+    private final byte[] data;
+    private final int width;
+    private final int height;
+
+    Frame(byte[] data, int width, int height) {
+      this.data = data;
+      this.width = width;
+      this.height = height;
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /** @return The luminance of the framing rectangle, as given by {@link #getFramingSource} */
+    public PlanarYUVLuminanceSource getFramingSource() {
+      return OcrTestData.getFramingSource(data, width, height);
+    }
+  }
+}
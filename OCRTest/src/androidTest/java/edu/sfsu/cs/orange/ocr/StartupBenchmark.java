@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+/**
+ * Launches CaptureActivity in continuous mode and records how long it takes to first recognize
+ * text, as measured by StartupMetrics from the creation of the activity, and as seen from the test
+ * from the request to launch it. The camera has to be pointed at printed text while this runs.
+ *
+ * StartupMetrics measures once per process, so each run measures one launch. To collect several
+ * samples, run it repeatedly on its own, each run starting a new process:
+ *
+ * adb shell am instrument -w -e class edu.sfsu.cs.orange.ocr.StartupBenchmark
+ *     edu.sfsu.cs.orange.ocr.test/android.test.InstrumentationTestRunner
+ *
+ * and read the results from the log under the tags StartupBenchmark and StartupMetrics.
+ */
+public class StartupBenchmark extends ActivityInstrumentationTestCase2<CaptureActivity> {
+
+  private static final String TAG = StartupBenchmark.class.getSimpleName();
+
+  /** How long to wait for text to be recognized before failing. */
+  private static final long TIMEOUT = 60000L;
+  private static final long POLL_INTERVAL = 50L;
+
+  private SharedPreferences prefs;
+  private boolean wasContinuous;
+
+  public StartupBenchmark() {
+    super(CaptureActivity.class);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    assertNotNull("Start the app once with English as the source language to install its data",
+        OcrTestData.getDataPath(getInstrumentation().getTargetContext()));
+    prefs = PreferenceManager.getDefaultSharedPreferences(
+        getInstrumentation().getTargetContext());
+    wasContinuous = prefs.getBoolean(PreferencesActivity.KEY_CONTINUOUS_PREVIEW,
+        CaptureActivity.DEFAULT_TOGGLE_CONTINUOUS);
+    prefs.edit().putBoolean(PreferencesActivity.KEY_CONTINUOUS_PREVIEW, true).commit();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    prefs.edit().putBoolean(PreferencesActivity.KEY_CONTINUOUS_PREVIEW, wasContinuous).commit();
+    super.tearDown();
+  }
+
+  public void testLaunchToFirstRecognizedText() throws InterruptedException {
+    assertEquals("Text was already recognized in this process, so run this on its own", -1,
+        StartupMetrics.getTimeToFirstText());
+
+    long start = SystemClock.uptimeMillis();
+    getActivity();
+    long timeToFirstText;
+    while ((timeToFirstText = StartupMetrics.getTimeToFirstText()) < 0) {
+      assertTrue("No text recognized within " + TIMEOUT + " ms. Point the camera at printed text.",
+          SystemClock.uptimeMillis() - start < TIMEOUT);
+      Thread.sleep(POLL_INTERVAL);
+    }
+    long elapsed = SystemClock.uptimeMillis() - start;
+
+    Log.i(TAG, "Launch to first recognized text: " + timeToFirstText + " ms from onCreate(), "
+        + elapsed + " ms from the launch request");
+  }
+}
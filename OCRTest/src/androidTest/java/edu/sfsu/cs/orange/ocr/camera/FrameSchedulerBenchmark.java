@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import edu.sfsu.cs.orange.ocr.OcrTestData;
+import edu.sfsu.cs.orange.ocr.PlanarYUVLuminanceSource;
+
+/**
+ * Measures how many preview frames per second continuous recognition gets through with one to as
+ * many engines as there are processor cores. Frames are offered to a FrameScheduler at the camera's
+ * usual rate of about 30 per second, and each decode worker recognizes the framing rectangle of the
+ * frames it is sent, the way DecodeHandler does. Results are checked to arrive in frame order.
+ *
+ * Uses the frames from {@link OcrTestData}, so recorded frames can be pushed to the device to
+ * measure on real camera input. Takes about ten seconds per engine count. Run with
+ * ./gradlew connectedAndroidTest, and read the results from the log under the tag
+ * FrameSchedulerBenchmark.
+ */
+public class FrameSchedulerBenchmark extends InstrumentationTestCase {
+
+  private static final String TAG = FrameSchedulerBenchmark.class.getSimpleName();
+
+  private static final int DECODE = 1;
+  private static final int RESULT = 2;
+
+  private static final long FRAME_INTERVAL = 33L;
+  private static final long WARM_UP_TIME = 2000L;
+  private static final long MEASUREMENT_TIME = 10000L;
+  private static final long DRAIN_TIMEOUT = 30000L;
+
+  private CameraManager cameraManager;
+  private List<OcrTestData.Frame> frames;
+  private final List<TessBaseAPI> engines = new ArrayList<TessBaseAPI>();
+  private final List<HandlerThread> threads = new ArrayList<HandlerThread>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final Context context = getInstrumentation().getTargetContext();
+    String dataPath = OcrTestData.getDataPath(context);
+    assertNotNull("Start the app once with English as the source language to install its data",
+        dataPath);
+    frames = OcrTestData.getFrames(context);
+
+    // CameraManager sets up an orientation listener, which wants a looper
+    getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        cameraManager = new CameraManager(context);
+      }
+    });
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < cores; i++) {
+      TessBaseAPI engine = new TessBaseAPI();
+      assertTrue("Could not initialize engine " + i,
+          engine.init(dataPath, OcrTestData.LANGUAGE, TessBaseAPI.OEM_TESSERACT_ONLY));
+      engine.setPageSegMode(TessBaseAPI.PageSegMode.PSM_AUTO);
+      engines.add(engine);
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    quitThreads();
+    for (TessBaseAPI engine : engines) {
+      engine.end();
+    }
+    super.tearDown();
+  }
+
+  public void testThroughputByEngineCount() throws InterruptedException {
+    float[] rates = new float[engines.size()];
+    for (int count = 1; count <= engines.size(); count++) {
+      FrameScheduler scheduler = new FrameScheduler(cameraManager);
+      ResultCollector collector = new ResultCollector(startThread("Results").getLooper());
+      Handler[] workers = new Handler[count];
+      for (int i = 0; i < count; i++) {
+        workers[i] = new DecodeWorker(startThread("Decode" + i).getLooper(), engines.get(i),
+            scheduler, collector);
+      }
+      scheduler.start(workers, DECODE, FrameScheduler.DispatchPolicy.LEAST_LOADED);
+
+      // Let every engine load its classifiers before measuring
+      offerFrames(scheduler, WARM_UP_TIME);
+      long startCount = collector.getCount();
+      long startLatency = collector.getTotalLatency();
+      long start = SystemClock.uptimeMillis();
+      offerFrames(scheduler, MEASUREMENT_TIME);
+      long elapsed = SystemClock.uptimeMillis() - start;
+      long decoded = collector.getCount() - startCount;
+      long latency = collector.getTotalLatency() - startLatency;
+
+      scheduler.stop();
+      awaitResults(scheduler, collector);
+      assertFalse("Results were released out of frame order", collector.isOutOfOrder());
+      quitThreads();
+
+      assertTrue("No frames were decoded with " + count + " engines", decoded > 0);
+      rates[count - 1] = decoded * 1000f / elapsed;
+      Log.i(TAG, count + " engines: " + String.format("%.2f", rates[count - 1])
+          + " frames/s, speedup " + String.format("%.2f", rates[count - 1] / rates[0])
+          + ", mean latency " + latency / decoded + " ms; " + scheduler);
+    }
+  }
+
+  /** Offers the frames in turn, one per frame interval, for the given time. */
+  private void offerFrames(FrameScheduler scheduler, long duration) throws InterruptedException {
+    long end = SystemClock.uptimeMillis() + duration;
+    int index = 0;
+    while (SystemClock.uptimeMillis() < end) {
+      OcrTestData.Frame frame = frames.get(index++ % frames.size());
+      scheduler.offerFrame(frame.getData(), frame.getWidth(), frame.getHeight());
+      Thread.sleep(FRAME_INTERVAL);
+    }
+  }
+
+  /** Waits for the frames still being decoded after the scheduler was stopped. */
+  private static void awaitResults(FrameScheduler scheduler, ResultCollector collector)
+      throws InterruptedException {
+    long end = SystemClock.uptimeMillis() + DRAIN_TIMEOUT;
+    while (collector.getCount() < scheduler.getDecodedCount()) {
+      assertTrue("Timed out waiting for the last results", SystemClock.uptimeMillis() < end);
+      Thread.sleep(FRAME_INTERVAL);
+    }
+  }
+
+  private HandlerThread startThread(String name) {
+    HandlerThread thread = new HandlerThread(name);
+    thread.start();
+    threads.add(thread);
+    return thread;
+  }
+
+  private void quitThreads() {
+    for (HandlerThread thread : threads) {
+      thread.quit();
+    }
+    threads.clear();
+  }
+
+  /** Recognizes the framing rectangle of each frame it is sent with its own engine. */
+  private static final class DecodeWorker extends Handler {
+    private final TessBaseAPI engine;
+    private final FrameScheduler scheduler;
+    private final Handler collector;
+    private byte[] luminance;
+
+    DecodeWorker(Looper looper, TessBaseAPI engine, FrameScheduler scheduler, Handler collector) {
+      super(looper);
+      this.engine = engine;
+      this.scheduler = scheduler;
+      this.collector = collector;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+      PreviewFrame frame = (PreviewFrame) message.obj;
+      long start = System.currentTimeMillis();
+      PlanarYUVLuminanceSource source = OcrTestData.getFramingSource(frame.getData(),
+          frame.getWidth(), frame.getHeight());
+      luminance = source.copyMatrix(luminance);
+      engine.setImage(luminance, source.getWidth(), source.getHeight(), 1, source.getWidth());
+      engine.getUTF8Text();
+      engine.clear();
+      long decodeTime = System.currentTimeMillis() - start;
+      scheduler.decodeFinished(this, frame, Message.obtain(collector, RESULT, frame), decodeTime);
+    }
+  }
+
+  /** Counts the results, and checks that they arrive in frame order. */
+  private static final class ResultCollector extends Handler {
+    private long count;
+    private long totalLatency;
+    private long lastSequence = -1;
+    private boolean outOfOrder;
+
+    ResultCollector(Looper looper) {
+      super(looper);
+    }
+
+    @Override
+    public synchronized void handleMessage(Message message) {
+      PreviewFrame frame = (PreviewFrame) message.obj;
+      if (frame.getSequence() <= lastSequence) {
+        outOfOrder = true;
+      }
+      lastSequence = frame.getSequence();
+      totalLatency += System.currentTimeMillis() - frame.getTimestamp();
+      count++;
+    }
+
+    synchronized long getCount() {
+      return count;
+    }
+
+    /** @return Sum of the times from capture to result, in milliseconds */
+    synchronized long getTotalLatency() {
+      return totalLatency;
+    }
+
+    synchronized boolean isOutOfOrder() {
+      return outOfOrder;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import android.graphics.Rect;
+
+import com.googlecode.leptonica.android.Pixa;
+
+/**
+ * Holds the bounding boxes of an OCR result at every layout level, without allocating an object per
+ * box. The boxes of each level are packed into one int array as consecutive left, top, right,
+ * bottom values, indexed by level and then by box.
+ *
+ * A dense page yields thousands of character boxes, and keeping each as a Rect in a List would
+ * create that many short-lived objects on every decode.
+ */
+public final class BoundingBoxes {
+
+  /** Level of the boxes around blocks of text, from TessBaseAPI::GetRegions(). */
+  public static final int REGION = 0;
+
+  /** Level of the boxes around lines of text, from TessBaseAPI::GetTextlines(). */
+  public static final int TEXTLINE = 1;
+
+  /** Level of the boxes around strips, from TessBaseAPI::GetStrips(). */
+  public static final int STRIP = 2;
+
+  /** Level of the boxes around words, from TessBaseAPI::GetWords(). */
+  public static final int WORD = 3;
+
+  /** Level of the boxes around characters, from TessBaseAPI::GetCharacters(). */
+  public static final int CHARACTER = 4;
+
+  private static final int LEVEL_COUNT = 5;
+
+  /** Mask with every level set. */
+  public static final int ALL_LEVELS = (1 << LEVEL_COUNT) - 1;
+
+  /** Number of ints stored per box. */
+  private static final int BOX_SIZE = 4;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int[][] coordinates = new int[LEVEL_COUNT][];
+  private final int[] counts = new int[LEVEL_COUNT];
+  private int materializedLevels;
+
+  /**
+   * @param level One of the level constants of this class
+   * @return The bit standing for that level in a mask of levels
+   */
+  public static int maskOf(int level) {
+    return 1 << level;
+  }
+
+  /**
+   * Appends a box to the given level.
+   *
+   * @param level One of the level constants of this class
+   */
+  public void add(int level, int left, int top, int right, int bottom) {
+    int[] boxes = ensureCapacity(level, counts[level] + 1);
+    int start = counts[level] * BOX_SIZE;
+    boxes[start] = left;
+    boxes[start + 1] = top;
+    boxes[start + 2] = right;
+    boxes[start + 3] = bottom;
+    counts[level]++;
+  }
+
+  /**
+   * Appends a box given as {left, top, right, bottom}, the form returned by
+   * PageIterator.getBoundingBox().
+   */
+  void add(int level, int[] box) {
+    add(level, box[0], box[1], box[2], box[3]);
+  }
+
+  /** Appends the box of every image in a Pixa, without going through a Rect per image. */
+  void addAll(int level, Pixa pixa) {
+    int size = pixa.size();
+    ensureCapacity(level, counts[level] + size);
+    int[] geometry = new int[4];
+    for (int i = 0; i < size; i++) {
+      if (pixa.getBoxGeometry(i, geometry)) {
+        // Leptonica boxes are x, y, width, height
+        add(level, geometry[0], geometry[1], geometry[0] + geometry[2], geometry[1] + geometry[3]);
+      }
+    }
+  }
+
+  /** Appends a list of boxes. Kept for callers that still produce Rects. */
+  void addAll(int level, List<Rect> rects) {
+    if (rects == null) {
+      return;
+    }
+    ensureCapacity(level, counts[level] + rects.size());
+    for (int i = 0; i < rects.size(); i++) {
+      Rect r = rects.get(i);
+      add(level, r.left, r.top, r.right, r.bottom);
+    }
+  }
+
+  /**
+   * Removes every box of the given level, and marks the level as materialized, meaning that the
+   * boxes added to it afterwards are all there are.
+   */
+  void clear(int level) {
+    counts[level] = 0;
+    materializedLevels |= maskOf(level);
+  }
+
+  /**
+   * @param level One of the level constants of this class
+   * @return Whether the boxes of that level were extracted. Levels that no consumer asked for are
+   *         left empty.
+   */
+  public boolean isMaterialized(int level) {
+    return (materializedLevels & maskOf(level)) != 0;
+  }
+
+  /** @return Number of boxes at the given level */
+  public int size(int level) {
+    return counts[level];
+  }
+
+  public int getLeft(int level, int index) {
+    return coordinates[level][index * BOX_SIZE];
+  }
+
+  public int getTop(int level, int index) {
+    return coordinates[level][index * BOX_SIZE + 1];
+  }
+
+  public int getRight(int level, int index) {
+    return coordinates[level][index * BOX_SIZE + 2];
+  }
+
+  public int getBottom(int level, int index) {
+    return coordinates[level][index * BOX_SIZE + 3];
+  }
+
+  /**
+   * Copies one box into a Rect.
+   *
+   * @param level One of the level constants of this class
+   * @param index Index of the box within its level
+   * @param result The Rect to fill in, or null to allocate one
+   * @return The filled in Rect
+   */
+  public Rect getBox(int level, int index, Rect result) {
+    if (result == null) {
+      result = new Rect();
+    }
+    int start = index * BOX_SIZE;
+    int[] boxes = coordinates[level];
+    result.set(boxes[start], boxes[start + 1], boxes[start + 2], boxes[start + 3]);
+    return result;
+  }
+
+  /**
+   * Returns a read-only view of one level as a list of Rects, for compatibility with code written
+   * against the old List-based accessors. Every call to get() allocates a new Rect, so drawing code
+   * should use the indexed accessors instead.
+   *
+   * @param level One of the level constants of this class
+   * @return A live view of the boxes at that level
+   */
+  public List<Rect> asList(final int level) {
+    return new AbstractList<Rect>() {
+      @Override
+      public Rect get(int index) {
+        if (index < 0 || index >= counts[level]) {
+          throw new IndexOutOfBoundsException("Index: " + index + ", size: " + counts[level]);
+        }
+        return getBox(level, index, null);
+      }
+
+      @Override
+      public int size() {
+        return counts[level];
+      }
+    };
+  }
+
+  private int[] ensureCapacity(int level, int boxCount) {
+    int[] boxes = coordinates[level];
+    if (boxes == null || boxes.length < boxCount * BOX_SIZE) {
+      int capacity = boxes == null ? INITIAL_CAPACITY : boxes.length / BOX_SIZE * 2;
+      int[] grown = new int[Math.max(capacity, boxCount) * BOX_SIZE];
+      if (boxes != null) {
+        System.arraycopy(boxes, 0, grown, 0, counts[level] * BOX_SIZE);
+      }
+      coordinates[level] = grown;
+      boxes = grown;
+    }
+    return boxes;
+  }
+}
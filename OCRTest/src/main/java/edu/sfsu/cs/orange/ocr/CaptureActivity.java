@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.Context;
@@ -94,7 +95,19 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
   public static final String DEFAULT_OCR_ENGINE_MODE = "Tesseract";
   
   /** The default page segmentation mode to use. */
-  public static final String DEFAULT_PAGE_SEGMENTATION_MODE = "Auto";
+  public static final String DEFAULT_PAGE_SEGMENTATION_MODE = "Automatic";
+  
+  /**
+   * The default time limit for recognizing one frame in continuous mode. None, because a limit can
+   * only be enforced by recognizing through getHOCRText(), which also builds an hOCR page per frame.
+   */
+  public static final String DEFAULT_RECOGNITION_TIME_LIMIT = "None";
+
+  /** Recognition time limits in milliseconds, in the order of the recognitiontimelimits array. */
+  private static final long[] RECOGNITION_TIME_LIMITS = { 0L, 1000L, 2000L, 5000L };
+
+  /** The default number of OCR engines to run in parallel for continuous recognition. */
+  public static final String DEFAULT_RECOGNITION_THREADS = "Automatic";
   
   /** Whether to use autofocus by default. */
   public static final boolean DEFAULT_TOGGLE_AUTO_FOCUS = true;
@@ -178,13 +191,18 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
   private boolean hasSurface;
   private BeepManager beepManager;
   private TessBaseAPI baseApi; // Java interface for the Tesseract OCR engine
+  private OcrEnginePool enginePool; // baseApi, plus any extra engines for continuous recognition
+  private OcrInitAsyncTask initTask; // Initialization this activity is showing the progress of
   private String sourceLanguageCodeOcr; // ISO 639-3 language code
   private String sourceLanguageReadable; // Language name, for example, "English"
   private String sourceLanguageCodeTranslation; // ISO 639-1 language code
   private String targetLanguageCodeTranslation; // ISO 639-1 language code
   private String targetLanguageReadable; // Language name, for example, "English"
   private int pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
+  private boolean isPageSegmentationModeAutomatic = true;
   private int ocrEngineMode = TessBaseAPI.OEM_TESSERACT_ONLY;
+  private int recognitionThreads = OcrEnginePool.getDefaultSize();
+  private long recognitionTimeLimit;
   private String characterBlacklist;
   private String characterWhitelist;
   private ShutterButton shutterButton;
@@ -205,14 +223,28 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
   TessBaseAPI getBaseApi() {
     return baseApi;
   }
+
+  OcrEnginePool getEnginePool() {
+    return enginePool;
+  }
   
   CameraManager getCameraManager() {
     return cameraManager;
   }
+
+  /**
+   * @return Mask of the BoundingBoxes levels that continuous-mode results are used for: those
+   *         drawn over the viewfinder, plus those drawn on the bitmap shown if the shutter button
+   *         is pressed. Levels outside the mask are not extracted from Tesseract.
+   */
+  int getNeededLayers() {
+    return ViewfinderView.getDrawnLayers() | OcrResult.ANNOTATED_LAYERS;
+  }
   
   @Override
   public void onCreate(Bundle icicle) {
     super.onCreate(icicle);
+    StartupMetrics.onLaunch();
     
     checkFirstLaunch();
     
@@ -281,42 +313,42 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
                   && ((currentY <= rect.top + BIG_BUFFER && currentY >= rect.top - BIG_BUFFER) || (lastY <= rect.top + BIG_BUFFER && lastY >= rect.top - BIG_BUFFER))) {
                 // Top left corner: adjust both top and left sides
                 cameraManager.adjustFramingRect( 2 * (lastX - currentX), 2 * (lastY - currentY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentX >= rect.right - BIG_BUFFER && currentX <= rect.right + BIG_BUFFER) || (lastX >= rect.right - BIG_BUFFER && lastX <= rect.right + BIG_BUFFER)) 
                   && ((currentY <= rect.top + BIG_BUFFER && currentY >= rect.top - BIG_BUFFER) || (lastY <= rect.top + BIG_BUFFER && lastY >= rect.top - BIG_BUFFER))) {
                 // Top right corner: adjust both top and right sides
                 cameraManager.adjustFramingRect( 2 * (currentX - lastX), 2 * (lastY - currentY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentX >= rect.left - BIG_BUFFER && currentX <= rect.left + BIG_BUFFER) || (lastX >= rect.left - BIG_BUFFER && lastX <= rect.left + BIG_BUFFER))
                   && ((currentY <= rect.bottom + BIG_BUFFER && currentY >= rect.bottom - BIG_BUFFER) || (lastY <= rect.bottom + BIG_BUFFER && lastY >= rect.bottom - BIG_BUFFER))) {
                 // Bottom left corner: adjust both bottom and left sides
                 cameraManager.adjustFramingRect(2 * (lastX - currentX), 2 * (currentY - lastY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentX >= rect.right - BIG_BUFFER && currentX <= rect.right + BIG_BUFFER) || (lastX >= rect.right - BIG_BUFFER && lastX <= rect.right + BIG_BUFFER)) 
                   && ((currentY <= rect.bottom + BIG_BUFFER && currentY >= rect.bottom - BIG_BUFFER) || (lastY <= rect.bottom + BIG_BUFFER && lastY >= rect.bottom - BIG_BUFFER))) {
                 // Bottom right corner: adjust both bottom and right sides
                 cameraManager.adjustFramingRect(2 * (currentX - lastX), 2 * (currentY - lastY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentX >= rect.left - BUFFER && currentX <= rect.left + BUFFER) || (lastX >= rect.left - BUFFER && lastX <= rect.left + BUFFER))
                   && ((currentY <= rect.bottom && currentY >= rect.top) || (lastY <= rect.bottom && lastY >= rect.top))) {
                 // Adjusting left side: event falls within BUFFER pixels of left side, and between top and bottom side limits
                 cameraManager.adjustFramingRect(2 * (lastX - currentX), 0);
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentX >= rect.right - BUFFER && currentX <= rect.right + BUFFER) || (lastX >= rect.right - BUFFER && lastX <= rect.right + BUFFER))
                   && ((currentY <= rect.bottom && currentY >= rect.top) || (lastY <= rect.bottom && lastY >= rect.top))) {
                 // Adjusting right side: event falls within BUFFER pixels of right side, and between top and bottom side limits
                 cameraManager.adjustFramingRect(2 * (currentX - lastX), 0);
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentY <= rect.top + BUFFER && currentY >= rect.top - BUFFER) || (lastY <= rect.top + BUFFER && lastY >= rect.top - BUFFER))
                   && ((currentX <= rect.right && currentX >= rect.left) || (lastX <= rect.right && lastX >= rect.left))) {
                 // Adjusting top side: event falls within BUFFER pixels of top side, and between left and right side limits
                 cameraManager.adjustFramingRect(0, 2 * (lastY - currentY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               } else if (((currentY <= rect.bottom + BUFFER && currentY >= rect.bottom - BUFFER) || (lastY <= rect.bottom + BUFFER && lastY >= rect.bottom - BUFFER))
                   && ((currentX <= rect.right && currentX >= rect.left) || (lastX <= rect.right && lastX >= rect.left))) {
                 // Adjusting bottom side: event falls within BUFFER pixels of bottom side, and between left and right side limits
                 cameraManager.adjustFramingRect(0, 2 * (currentY - lastY));
-                viewfinderView.removeResultText();
+                onFramingRectAdjusted();
               }     
             }
           } catch (NullPointerException e) {
@@ -336,6 +368,13 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     });
     
     isEngineReady = false;
+
+    // Let the engine cache hold more language data on devices with more memory free, so that they
+    // keep more languages ready.
+    ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+    OcrEngineHost engineHost = OcrEngineHost.getInstance();
+    engineHost.setMemoryBudget(OcrEngineHost.computeMemoryBudget(activityManager));
+    engineHost.acquire();
   }
 
   @Override
@@ -343,9 +382,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     super.onResume();   
     resetStatusView();
     
-    String previousSourceLanguageCodeOcr = sourceLanguageCodeOcr;
-    int previousOcrEngineMode = ocrEngineMode;
-    
     retrievePreferences();
     
     // Set up the camera preview surface.
@@ -358,10 +394,26 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     
     // Comment out the following block to test non-OCR functions without an SD card
     
-    // Do OCR engine initialization, if necessary
-    boolean doNewInit = (baseApi == null) || !sourceLanguageCodeOcr.equals(previousSourceLanguageCodeOcr) || 
-        ocrEngineMode != previousOcrEngineMode;
-    if (doNewInit) {      
+    // Do OCR engine initialization, if necessary. Engines initialized with the same settings by an
+    // earlier instance of this activity are still hosted, and can be used right away.
+    OcrEngineHost engineHost = OcrEngineHost.getInstance();
+    OcrEnginePool hostedEngines = engineHost.getEnginePool(sourceLanguageCodeOcr, ocrEngineMode,
+        getEngineCount());
+    OcrInitAsyncTask pendingInit = hostedEngines == null ? engineHost.getPendingInit(
+        sourceLanguageCodeOcr, ocrEngineMode, getEngineCount()) : null;
+    if (pendingInit != null) {
+      // Still initializing these engines, since before the pause or for an earlier instance of
+      // this activity. Recognition resumes once the initialization finishes.
+      Log.d(TAG, "Waiting for the OCR engine initialization in progress");
+      if (pendingInit != initTask) {
+        isEngineReady = false;
+        showInitDialogs(sourceLanguageReadable);
+        initTask = pendingInit;
+        enginePool = pendingInit.getEnginePool();
+        baseApi = enginePool.getPrimaryEngine();
+        pendingInit.attach(this, dialog, indeterminateDialog);
+      }
+    } else if (hostedEngines == null) {      
       // Initialize the OCR engine
       File storageDirectory = getStorageDirectory();
       if (storageDirectory != null) {
@@ -369,6 +421,8 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       }
     } else {
       // We already have the engine initialized, so just start the camera.
+      enginePool = hostedEngines;
+      baseApi = hostedEngines.getPrimaryEngine();
       resumeOCR();
     }
   }
@@ -390,10 +444,10 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     if (handler != null) {
       handler.resetState();
     }
-    if (baseApi != null) {
-      baseApi.setPageSegMode(pageSegmentationMode);
-      baseApi.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, characterBlacklist);
-      baseApi.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, characterWhitelist);
+    if (enginePool != null) {
+      enginePool.setPageSegMode(pageSegmentationMode);
+      enginePool.setVariable(TessBaseAPI.VAR_CHAR_BLACKLIST, characterBlacklist);
+      enginePool.setVariable(TessBaseAPI.VAR_CHAR_WHITELIST, characterWhitelist);
     }
 
     if (hasSurface) {
@@ -424,7 +478,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     isPaused = false;
     resetStatusView();
     setStatusViewForContinuous();
-    DecodeHandler.resetDecodeState();
     handler.resetState();
     if (shutterButton != null && DISPLAY_SHUTTER_BUTTON) {
       shutterButton.setVisibility(View.VISIBLE);
@@ -439,8 +492,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       Log.e(TAG, "surfaceCreated gave us a null surface");
     }
     
-    // Only initialize the camera if the OCR engine is ready to go.
-    if (!hasSurface && isEngineReady) {
+    // Open the camera even if the OCR engine is still initializing, so that the two happen at the
+    // same time. Recognition only starts once the engine is ready.
+    if (!hasSurface) {
       Log.d(TAG, "surfaceCreated(): calling initCamera()...");
       initCamera(holder);
     }
@@ -455,11 +509,18 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     }
     try {
 
-      // Open and initialize the camera
-      cameraManager.openDriver(surfaceHolder);
+      // Open and initialize the camera, unless that was done while the OCR engine was initializing
+      if (!cameraManager.isOpen()) {
+        long start = System.currentTimeMillis();
+        cameraManager.openDriver(surfaceHolder);
+        StartupMetrics.onCameraOpened(System.currentTimeMillis() - start);
+      }
       
-      // Creating the handler starts the preview, which can also throw a RuntimeException.
-      handler = new CaptureActivityHandler(this, cameraManager, isContinuousModeActive);
+      // Creating the handler starts the preview, which can also throw a RuntimeException. It is
+      // created by resumeOCR() once the OCR engine is ready.
+      if (isEngineReady) {
+        handler = new CaptureActivityHandler(this, cameraManager, isContinuousModeActive);
+      }
       
     } catch (IOException ioe) {
       showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
@@ -487,6 +548,14 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     super.onPause();
   }
 
+  /** Drops the results that were recognized from the framing rectangle before it was resized. */
+  private void onFramingRectAdjusted() {
+    viewfinderView.removeResultText();
+    if (handler != null) {
+      handler.onFramingRectChanged();
+    }
+  }
+
   void stopHandler() {
     if (handler != null) {
       handler.stop();
@@ -495,9 +564,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
 
   @Override
   protected void onDestroy() {
-    if (baseApi != null) {
-      baseApi.end();
+    // An initialization in progress continues, and hands its engines to the host
+    if (initTask != null) {
+      initTask.detach(this);
     }
+    // The engines are ended by the host once no activity has used them for a while
+    OcrEngineHost.getInstance().release();
     super.onDestroy();
   }
 
@@ -650,12 +722,6 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
   private void initOcrEngine(File storageRoot, String languageCode, String languageName) {    
     isEngineReady = false;
     
-    // Set up the dialog box for the thermometer-style download progress indicator
-    if (dialog != null) {
-      dialog.dismiss();
-    }
-    dialog = new ProgressDialog(this);
-    
     // If we have a language that only runs using Cube, then set the ocrEngineMode to Cube
     if (ocrEngineMode != TessBaseAPI.OEM_CUBE_ONLY) {
       for (String s : CUBE_REQUIRED_LANGUAGES) {
@@ -682,17 +748,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       }
     }
     
-    // Display the name of the OCR engine we're initializing in the indeterminate progress dialog box
-    indeterminateDialog = new ProgressDialog(this);
-    indeterminateDialog.setTitle("Please wait");
-    String ocrEngineModeName = getOcrEngineModeName();
-    if (ocrEngineModeName.equals("Both")) {
-      indeterminateDialog.setMessage("Initializing Cube and Tesseract OCR engines for " + languageName + "...");
-    } else {
-      indeterminateDialog.setMessage("Initializing " + ocrEngineModeName + " OCR engine for " + languageName + "...");
-    }
-    indeterminateDialog.setCancelable(false);
-    indeterminateDialog.show();
+    showInitDialogs(languageName);
     
     if (handler != null) {
       handler.quitSynchronously();     
@@ -709,10 +765,65 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     
     // Start AsyncTask to install language data and init OCR
     baseApi = new TessBaseAPI();
-    new OcrInitAsyncTask(this, baseApi, dialog, indeterminateDialog, languageCode, languageName, ocrEngineMode)
-      .execute(storageRoot.toString());
+    enginePool = new OcrEnginePool(baseApi, getEngineCount());
+    initTask = new OcrInitAsyncTask(this, enginePool, dialog, indeterminateDialog, languageCode,
+        languageName, ocrEngineMode);
+    OcrEngineHost.getInstance().putPendingInit(initTask, languageCode, ocrEngineMode,
+        getEngineCount());
+    TaskExecutor.DISK.execute(initTask, TaskExecutor.PRIORITY_HIGH, "init",
+        storageRoot.toString());
   }
-  
+
+  /**
+   * Sets up the dialog box for the thermometer-style download progress indicator, and shows the
+   * indeterminate progress dialog box with the name of the OCR engine being initialized.
+   *
+   * @param languageName Name of the language for OCR, for example, "English"
+   */
+  private void showInitDialogs(String languageName) {
+    if (dialog != null) {
+      dialog.dismiss();
+    }
+    dialog = new ProgressDialog(this);
+
+    // Display the name of the OCR engine we're initializing in the indeterminate progress dialog box
+    indeterminateDialog = new ProgressDialog(this);
+    indeterminateDialog.setTitle("Please wait");
+    String ocrEngineModeName = getOcrEngineModeName();
+    if (ocrEngineModeName.equals("Both")) {
+      indeterminateDialog.setMessage("Initializing Cube and Tesseract OCR engines for " + languageName + "...");
+    } else {
+      indeterminateDialog.setMessage("Initializing " + ocrEngineModeName + " OCR engine for " + languageName + "...");
+    }
+    indeterminateDialog.setCancelable(false);
+    indeterminateDialog.show();
+  }
+
+  /** @return The page segmentation mode engines are set to when not chosen per frame */
+  int getPageSegmentationMode() {
+    return pageSegmentationMode;
+  }
+
+  /** @return Whether continuous mode should choose the page segmentation mode for each frame */
+  boolean isPageSegmentationModeAutomatic() {
+    return isPageSegmentationModeAutomatic;
+  }
+
+  /**
+   * @return Longest time a continuous-mode recognition may take, in milliseconds, or 0 for no limit
+   */
+  long getRecognitionTimeLimit() {
+    return recognitionTimeLimit;
+  }
+
+  /**
+   * @return Number of engines to initialize for the current engine mode. Cube needs too much memory
+   *         to run more than one engine at a time.
+   */
+  private int getEngineCount() {
+    return ocrEngineMode == TessBaseAPI.OEM_TESSERACT_ONLY ? recognitionThreads : 1;
+  }
+
   /**
    * Displays information relating to the result of OCR, and requests a translation if necessary.
    * 
@@ -729,6 +840,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       toast.show();
       return false;
     }
+    StartupMetrics.onTextRecognized(ocrResult.getRecognitionTimeRequired());
     
     // Turn off capture-related UI elements
     shutterButton.setVisibility(View.GONE);
@@ -772,8 +884,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       setProgressBarVisibility(true);
       
       // Get the translation asynchronously
-      new TranslateAsyncTask(this, sourceLanguageCodeTranslation, targetLanguageCodeTranslation, 
-          ocrResult.getText()).execute();
+      TaskExecutor.NETWORK.execute(new TranslateAsyncTask(this, sourceLanguageCodeTranslation,
+          targetLanguageCodeTranslation, ocrResult.getText()), TaskExecutor.PRIORITY_NORMAL,
+          "translate");
     } else {
       translationLanguageLabelTextView.setVisibility(View.GONE);
       translationLanguageTextView.setVisibility(View.GONE);
@@ -792,17 +905,15 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
   void handleOcrContinuousDecode(OcrResult ocrResult) {
    
     lastResult = ocrResult;
+    StartupMetrics.onTextRecognized(ocrResult.getRecognitionTimeRequired());
     
     // Send an OcrResultText object to the ViewfinderView for text rendering
     viewfinderView.addResultText(new OcrResultText(ocrResult.getText(), 
                                                    ocrResult.getWordConfidences(),
                                                    ocrResult.getMeanConfidence(),
                                                    ocrResult.getBitmapDimensions(),
-                                                   ocrResult.getRegionBoundingBoxes(),
-                                                   ocrResult.getTextlineBoundingBoxes(),
-                                                   ocrResult.getStripBoundingBoxes(),
-                                                   ocrResult.getWordBoundingBoxes(),
-                                                   ocrResult.getCharacterBoundingBoxes()));
+                                                   ocrResult.getBoundingBoxes(),
+                                                   ocrResult.getRotation()));
 
     Integer meanConfidence = ocrResult.getMeanConfidence();
     
@@ -822,7 +933,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       long recognitionTimeRequired = ocrResult.getRecognitionTimeRequired();
       statusViewBottom.setTextSize(14);
       statusViewBottom.setText("OCR: " + sourceLanguageReadable + " - Mean confidence: " + 
-          meanConfidence.toString() + " - Time required: " + recognitionTimeRequired + " ms");
+          meanConfidence.toString() + " - Time required: " + recognitionTimeRequired + " ms"
+          + (ocrResult.isMonitored() ? " (with hOCR)" : "")
+          + (ocrResult.isPartial() ? " (stopped)" : ""));
     }
   }
   
@@ -1100,23 +1213,28 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
       // Retrieve from preferences, and set in this Activity, the page segmentation mode preference
       String[] pageSegmentationModes = getResources().getStringArray(R.array.pagesegmentationmodes);
       String pageSegmentationModeName = prefs.getString(PreferencesActivity.KEY_PAGE_SEGMENTATION_MODE, pageSegmentationModes[0]);
-      if (pageSegmentationModeName.equals(pageSegmentationModes[0])) {
+      // Automatic chooses the mode per frame in continuous mode, and uses full layout analysis for
+      // single-shot recognition.
+      isPageSegmentationModeAutomatic = pageSegmentationModeName.equals(pageSegmentationModes[0]);
+      if (isPageSegmentationModeAutomatic) {
         pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[1])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[2])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[3])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_CHAR;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[4])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_COLUMN;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_CHAR;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[5])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_LINE;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_COLUMN;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[6])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_WORD;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_LINE;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[7])) {
-        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK_VERT_TEXT;
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_WORD;
       } else if (pageSegmentationModeName.equals(pageSegmentationModes[8])) {
+        pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK_VERT_TEXT;
+      } else if (pageSegmentationModeName.equals(pageSegmentationModes[9])) {
         pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_SPARSE_TEXT;
       }
       
@@ -1131,6 +1249,28 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         ocrEngineMode = TessBaseAPI.OEM_TESSERACT_CUBE_COMBINED;
       }
       
+      // Retrieve from preferences, and set in this Activity, the number of OCR engines to run
+      String[] recognitionThreadNames = getResources().getStringArray(R.array.recognitionthreads);
+      String recognitionThreadName = prefs.getString(PreferencesActivity.KEY_RECOGNITION_THREADS, recognitionThreadNames[0]);
+      if (recognitionThreadName.equals(recognitionThreadNames[0])) {
+        recognitionThreads = OcrEnginePool.getDefaultSize();
+      } else {
+        try {
+          recognitionThreads = Integer.parseInt(recognitionThreadName);
+        } catch (NumberFormatException e) {
+          recognitionThreads = OcrEnginePool.getDefaultSize();
+        }
+      }
+      
+      // Retrieve from preferences, and set in this Activity, the time limit for recognizing a frame
+      String[] recognitionTimeLimitNames = getResources().getStringArray(R.array.recognitiontimelimits);
+      String recognitionTimeLimitName = prefs.getString(PreferencesActivity.KEY_RECOGNITION_TIME_LIMIT, DEFAULT_RECOGNITION_TIME_LIMIT);
+      for (int i = 0; i < recognitionTimeLimitNames.length; i++) {
+        if (recognitionTimeLimitName.equals(recognitionTimeLimitNames[i])) {
+          recognitionTimeLimit = RECOGNITION_TIME_LIMITS[i];
+        }
+      }
+      
       // Retrieve from preferences, and set in this Activity, the character blacklist and whitelist
       characterBlacklist = OcrCharacterHelper.getBlacklist(prefs, sourceLanguageCodeOcr);
       characterWhitelist = OcrCharacterHelper.getWhitelist(prefs, sourceLanguageCodeOcr);
@@ -1164,6 +1304,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     // OCR Engine
     prefs.edit().putString(PreferencesActivity.KEY_OCR_ENGINE_MODE, CaptureActivity.DEFAULT_OCR_ENGINE_MODE).commit();
 
+    // Recognition threads
+    prefs.edit().putString(PreferencesActivity.KEY_RECOGNITION_THREADS, CaptureActivity.DEFAULT_RECOGNITION_THREADS).commit();
+
+    // Recognition time limit
+    prefs.edit().putString(PreferencesActivity.KEY_RECOGNITION_TIME_LIMIT, CaptureActivity.DEFAULT_RECOGNITION_TIME_LIMIT).commit();
+
     // Autofocus
     prefs.edit().putBoolean(PreferencesActivity.KEY_AUTO_FOCUS, CaptureActivity.DEFAULT_TOGGLE_AUTO_FOCUS).commit();
     
@@ -19,6 +19,7 @@ package edu.sfsu.cs.orange.ocr;
 import edu.sfsu.cs.orange.ocr.CaptureActivity;
 import edu.sfsu.cs.orange.ocr.R;
 import edu.sfsu.cs.orange.ocr.camera.CameraManager;
+import edu.sfsu.cs.orange.ocr.camera.FrameScheduler;
 import edu.sfsu.cs.orange.ocr.OcrResult;
 
 import android.os.Handler;
@@ -35,9 +36,20 @@ import android.widget.Toast;
 final class CaptureActivityHandler extends Handler {
 
   private static final String TAG = CaptureActivityHandler.class.getSimpleName();
+
+  /** How preview frames are spread over the decode threads during continuous recognition. */
+  private static final FrameScheduler.DispatchPolicy DISPATCH_POLICY =
+      FrameScheduler.DispatchPolicy.LEAST_LOADED;
   
   private final CaptureActivity activity;
-  private final DecodeThread decodeThread;
+  private final DecodeThread[] decodeThreads;
+  private final Handler[] decodeHandlers;
+  private final FrameChangeDetector changeDetector = new FrameChangeDetector();
+  private final FocusEstimator focusEstimator = new FocusEstimator();
+  private final TextFilter textFilter = new TextFilter();
+  private final RecognitionWatchdog watchdog;
+  private final PageSegModeSelector pageSegModeSelector = new PageSegModeSelector();
+  private final OrientationScriptCache osdCache = new OrientationScriptCache();
   private static State state;
   private final CameraManager cameraManager;
 
@@ -57,11 +69,24 @@ final class CaptureActivityHandler extends Handler {
     // Start ourselves capturing previews (and decoding if using continuous recognition mode).
     cameraManager.startPreview();
     
-    decodeThread = new DecodeThread(activity);
-    decodeThread.start();
+    // Start one decode thread per OCR engine. The first one also handles single-shot requests.
+    watchdog = new RecognitionWatchdog(activity.getRecognitionTimeLimit());
+    OcrEnginePool enginePool = activity.getEnginePool();
+    decodeThreads = new DecodeThread[enginePool.size()];
+    decodeHandlers = new Handler[decodeThreads.length];
+    for (int i = 0; i < decodeThreads.length; i++) {
+      decodeThreads[i] = new DecodeThread(activity, enginePool.getEngine(i), changeDetector,
+          focusEstimator, textFilter, watchdog, pageSegModeSelector, osdCache);
+      decodeThreads[i].start();
+    }
+    for (int i = 0; i < decodeThreads.length; i++) {
+      decodeHandlers[i] = decodeThreads[i].getHandler();
+    }
     
     if (isContinuousModeActive) {
       state = State.CONTINUOUS;
+      changeDetector.reset();
+      osdCache.invalidate();
 
       // Show the shutter and torch buttons
       activity.setButtonVisibility(true);
@@ -88,7 +113,6 @@ final class CaptureActivityHandler extends Handler {
         restartOcrPreview();
         break;
       case R.id.ocr_continuous_decode_failed:
-        DecodeHandler.resetDecodeState();        
         try {
           activity.handleOcrContinuousDecode((OcrResultFailure) message.obj);
         } catch (NullPointerException e) {
@@ -99,7 +123,6 @@ final class CaptureActivityHandler extends Handler {
         }
         break;
       case R.id.ocr_continuous_decode_succeeded:
-        DecodeHandler.resetDecodeState();
         try {
           activity.handleOcrContinuousDecode((OcrResult) message.obj);
         } catch (NullPointerException e) {
@@ -130,6 +153,20 @@ final class CaptureActivityHandler extends Handler {
     
     Log.d(TAG, "Setting state to CONTINUOUS_PAUSED.");
     state = State.CONTINUOUS_PAUSED;
+    cameraManager.stopContinuousDecode();
+
+    // Don't keep the user waiting on recognitions whose results will not be shown
+    watchdog.stopAll();
+    Log.d(TAG, "Unchanged frames: " + changeDetector);
+    if (TextFilter.ENABLED) {
+      Log.d(TAG, "Text filter: " + textFilter);
+    }
+    Log.d(TAG, "Focus filter: " + focusEstimator);
+    Log.d(TAG, "Recognition time limit: " + watchdog);
+    if (activity.isPageSegmentationModeAutomatic()) {
+      Log.d(TAG, "Page segmentation modes: " + pageSegModeSelector);
+    }
+    Log.d(TAG, "Orientation and script detection: " + osdCache);
     removeMessages(R.id.ocr_continuous_decode);
     removeMessages(R.id.ocr_decode);
     removeMessages(R.id.ocr_continuous_decode_failed);
@@ -144,21 +181,39 @@ final class CaptureActivityHandler extends Handler {
     if (state == State.CONTINUOUS_PAUSED) {
       Log.d(TAG, "Setting state to CONTINUOUS");
       state = State.CONTINUOUS;
+      changeDetector.reset();
+      osdCache.invalidate();
       restartOcrPreviewAndDecode();
     }
   }
   
+  /**
+   * Called when the user resizes the framing rectangle, after which the last result no longer
+   * matches what is in it.
+   */
+  void onFramingRectChanged() {
+    changeDetector.reset();
+  }
+  
   void quitSynchronously() {    
     state = State.DONE;
     if (cameraManager != null) {
       cameraManager.stopPreview();
     }
+    watchdog.stopAll();
     //Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
     try {
       //quit.sendToTarget(); // This always gives "sending message to a Handler on a dead thread"
       
-      // Wait at most half a second; should be enough time, and onPause() will timeout quickly
-      decodeThread.join(500L);
+      // Wait at most half a second in total; should be enough time, and onPause() will timeout quickly
+      long deadline = System.currentTimeMillis() + 500L;
+      for (DecodeThread decodeThread : decodeThreads) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          break;
+        }
+        decodeThread.join(remaining);
+      }
     } catch (InterruptedException e) {
       Log.w(TAG, "Caught InterruptedException in quitSyncronously()", e);
       // continue
@@ -191,14 +246,14 @@ final class CaptureActivityHandler extends Handler {
   }
   
   /**
-   *  Send a decode request for realtime OCR mode
+   *  Start or continue decoding for realtime OCR mode
    */
   private void restartOcrPreviewAndDecode() {
     // Continue capturing camera frames
     cameraManager.startPreview();
     
-    // Continue requesting decode of images
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_continuous_decode);
+    // Keep the decode threads fed with the newest frame. This has no effect if they already are.
+    cameraManager.startContinuousDecode(decodeHandlers, R.id.ocr_continuous_decode, DISPATCH_POLICY);
     activity.drawViewfinder();    
   }
 
@@ -207,7 +262,7 @@ final class CaptureActivityHandler extends Handler {
    */
   private void ocrDecode() {
     state = State.PREVIEW_PAUSED;
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_decode);
+    cameraManager.requestOcrDecode(decodeHandlers[0], R.id.ocr_decode);
   }
   
   /**
@@ -20,12 +20,13 @@ package edu.sfsu.cs.orange.ocr;
 import edu.sfsu.cs.orange.ocr.BeepManager;
 
 import com.googlecode.leptonica.android.Pixa;
-import com.googlecode.leptonica.android.ReadFile;
 import com.googlecode.tesseract.android.TessBaseAPI;
 
 import edu.sfsu.cs.orange.ocr.CaptureActivity;
 import edu.sfsu.cs.orange.ocr.R;
-import android.graphics.Bitmap;
+import edu.sfsu.cs.orange.ocr.camera.CameraManager;
+import edu.sfsu.cs.orange.ocr.camera.PreviewFrame;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -41,14 +42,35 @@ final class DecodeHandler extends Handler {
   private final CaptureActivity activity;
   private boolean running = true;
   private final TessBaseAPI baseApi;
+  private final FrameChangeDetector changeDetector;
+  private final FocusEstimator focusEstimator;
+  private final TextDetector textDetector = new TextDetector();
+  private final TextFilter textFilter;
+  private final RecognitionWatchdog watchdog;
+  private final RecognitionWatchdog.Deadline deadline;
+  private final PageSegModeSelector pageSegModeSelector;
+  private final OrientationScriptCache osdCache;
   private BeepManager beepManager;
-  private Bitmap bitmap;
-  private static boolean isDecodePending;
+  private byte[] luminance; // Reused between frames until a result takes ownership of it
+  private int luminanceWidth;
+  private int luminanceHeight;
+  private int[] signature;
+  private Rect textRegion; // Part of the luminance image to recognize
+  private final Rect cropRegion = new Rect();
   private long timeRequired;
 
-  DecodeHandler(CaptureActivity activity) {
+  DecodeHandler(CaptureActivity activity, TessBaseAPI baseApi, FrameChangeDetector changeDetector,
+      FocusEstimator focusEstimator, TextFilter textFilter, RecognitionWatchdog watchdog,
+      PageSegModeSelector pageSegModeSelector, OrientationScriptCache osdCache) {
     this.activity = activity;
-    baseApi = activity.getBaseApi();
+    this.baseApi = baseApi;
+    this.changeDetector = changeDetector;
+    this.focusEstimator = focusEstimator;
+    this.textFilter = textFilter;
+    this.watchdog = watchdog;
+    this.deadline = watchdog.newDeadline(baseApi);
+    this.pageSegModeSelector = pageSegModeSelector;
+    this.osdCache = osdCache;
     beepManager = new BeepManager(activity);
     beepManager.updatePrefs();
   }
@@ -60,10 +82,16 @@ final class DecodeHandler extends Handler {
     }
     switch (message.what) {        
     case R.id.ocr_continuous_decode:
-      // Only request a decode if a request is not already pending.
-      if (!isDecodePending) {
-        isDecodePending = true;
-        ocrContinuousDecode((byte[]) message.obj, message.arg1, message.arg2);
+      // Other decode threads may be working on neighbouring frames, so hand the result back to the
+      // scheduler, which passes it on in frame order.
+      PreviewFrame frame = (PreviewFrame) message.obj;
+      Message result = null;
+      long start = System.currentTimeMillis();
+      try {
+        result = ocrContinuousDecode(frame.getData(), frame.getWidth(), frame.getHeight());
+      } finally {
+        activity.getCameraManager().getFrameScheduler().decodeFinished(this, frame, result,
+            System.currentTimeMillis() - start);
       }
       break;
     case R.id.ocr_decode:
@@ -76,10 +104,6 @@ final class DecodeHandler extends Handler {
     }
   }
 
-  static void resetDecodeState() {
-    isDecodePending = false;
-  }
-
   /**
    *  Launch an AsyncTask to perform an OCR decode for single-shot mode.
    *  
@@ -90,9 +114,11 @@ final class DecodeHandler extends Handler {
   private void ocrDecode(byte[] data, int width, int height) {
     beepManager.playBeepSoundAndVibrate();
     activity.displayProgressDialog();
-    
-    // Launch OCR asynchronously, so we get the dialog box displayed immediately
-    new OcrRecognizeAsyncTask(activity, baseApi, data, width, height).execute();
+
+    // Launch OCR asynchronously, so we get the dialog box displayed immediately. Requests run one
+    // after another, since each must finish with the engine before the next can use it.
+    TaskExecutor.OCR.execute(new OcrRecognizeAsyncTask(activity, baseApi, data, width, height,
+        activity.getPageSegmentationMode()), TaskExecutor.PRIORITY_HIGH, null);
   }
 
   /**
@@ -101,38 +127,101 @@ final class DecodeHandler extends Handler {
    * @param data Image data
    * @param width Image width
    * @param height Image height
+   * @return The unsent result message for the activity's handler, or null if there is none
    */
-  private void ocrContinuousDecode(byte[] data, int width, int height) {   
-    PlanarYUVLuminanceSource source = activity.getCameraManager().buildLuminanceSource(data, width, height);
+  private Message ocrContinuousDecode(byte[] data, int width, int height) {   
+    CameraManager cameraManager = activity.getCameraManager();
+    PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height);
     if (source == null) {
-      sendContinuousOcrFailMessage();
-      return;
+      cameraManager.releaseFrame(data);
+      return obtainContinuousOcrFailMessage();
+    }
+    // If the viewfinder shows the same thing as when we last read some text, that result still
+    // holds, so it is delivered again instead of recognizing the frame.
+    int rotation = cameraManager.getFrameRotation();
+    signature = FrameChangeDetector.computeSignature(source, signature);
+    OcrResult unchangedResult = changeDetector.getUnchangedResult(signature, source.getWidth(),
+        source.getHeight(), rotation);
+    if (unchangedResult != null) {
+      cameraManager.releaseFrame(data);
+      Handler handler = activity.getHandler();
+      return handler == null ? null
+          : Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, unchangedResult);
+    }
+
+    // Skip frames that show no text at all. This comes before the focus check, so that pointing
+    // the camera away from the text clears the last result rather than asking for a refocus.
+    Rect region = cropRegion;
+    region.set(0, 0, source.getWidth(), source.getHeight());
+    if (TextFilter.ENABLED) {
+      long start = System.currentTimeMillis();
+      if (!textFilter.accept(textDetector.detect(source))) {
+        cameraManager.releaseFrame(data);
+        timeRequired = System.currentTimeMillis() - start;
+        return obtainContinuousOcrFailMessage();
+      }
+      region = textDetector.getTextRegion();
+    }
+
+    // Don't spend a recognition pass on a frame taken while the lens was still moving.
+    if (!focusEstimator.isInFocus(FocusEstimator.computeScore(source))) {
+      cameraManager.releaseFrame(data);
+      if (focusEstimator.shouldRefocus()) {
+        cameraManager.reportBlurryFrames();
+      }
+      return null;
     }
-    bitmap = source.renderCroppedGreyscaleBitmap();
+
+    // Copy out the crop, turned so that the text is upright for Tesseract.
+    PlanarYUVLuminanceSource upright = source.rotate(rotation, luminance);
+    luminance = upright.getData();
+    luminanceWidth = upright.getWidth();
+    luminanceHeight = upright.getHeight();
+    textRegion = PlanarYUVLuminanceSource.rotateRect(region, source.getWidth(), source.getHeight(),
+        rotation, textRegion);
+
+    // We hold our own copy of the cropped pixels, so the preview buffer can go back to the camera.
+    cameraManager.releaseFrame(data);
+
+    // Pick a cheaper page segmentation mode than full layout analysis when the frame allows it,
+    // and skip orientation and script detection while its last result still holds. In automatic
+    // mode, full analysis is only chosen to recover from poorly recognized frames, so it always
+    // runs detection again.
+    boolean isPageSegModeAutomatic = activity.isPageSegmentationModeAutomatic();
+    int pageSegMode = isPageSegModeAutomatic
+        ? pageSegModeSelector.select(luminanceWidth, luminanceHeight)
+        : activity.getPageSegmentationMode();
+    pageSegMode = osdCache.resolve(pageSegMode, rotation, isPageSegModeAutomatic);
+    baseApi.setPageSegMode(pageSegMode);
 
     OcrResult ocrResult = getOcrResult();
+    if (ocrResult != null) {
+      ocrResult.setRotation(rotation);
+    }
+    osdCache.onRecognized(pageSegMode, rotation, ocrResult);
+    if (isPageSegModeAutomatic) {
+      pageSegModeSelector.onRecognized(pageSegMode, ocrResult, timeRequired);
+    }
     Handler handler = activity.getHandler();
     if (handler == null) {
-      return;
+      return null;
     }
 
     if (ocrResult == null) {
       try {
-        sendContinuousOcrFailMessage();
-      } catch (NullPointerException e) {
-        activity.stopHandler();
+        return obtainContinuousOcrFailMessage();
       } finally {
-        bitmap.recycle();
         baseApi.clear();
       }
-      return;
     }
 
     try {
-      Message message = Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, ocrResult);
-      message.sendToTarget();
-    } catch (NullPointerException e) {
-      activity.stopHandler();
+      // An incomplete result should not stand in for later frames of the same scene
+      if (!ocrResult.isPartial()) {
+        changeDetector.setResult(signature, source.getWidth(), source.getHeight(), rotation,
+            ocrResult);
+      }
+      return Message.obtain(handler, R.id.ocr_continuous_decode_succeeded, ocrResult);
     } finally {
       baseApi.clear();
     }
@@ -142,10 +231,23 @@ final class DecodeHandler extends Handler {
 	private OcrResult getOcrResult() {
     OcrResult ocrResult;
     String textResult;
+    boolean isStopped = false;
     long start = System.currentTimeMillis();
 
     try {     
-      baseApi.setImage(ReadFile.readBitmap(bitmap));
+      baseApi.setImage(luminance, luminanceWidth, luminanceHeight, 1, luminanceWidth);
+      baseApi.setRectangle(textRegion);
+      if (watchdog.hasTimeLimit()) {
+        // Only getHOCRText() recognizes with a progress monitor, which is what checks for stop().
+        // getUTF8Text() then reads the text from the same, possibly partial, results. Building
+        // the unused hOCR page adds to every frame, which is why there is no limit by default.
+        deadline.start();
+        try {
+          baseApi.getHOCRText(0);
+        } finally {
+          isStopped = deadline.finish();
+        }
+      }
       textResult = baseApi.getUTF8Text();
       timeRequired = System.currentTimeMillis() - start;
 
@@ -154,34 +256,17 @@ final class DecodeHandler extends Handler {
         return null;
       }
       ocrResult = new OcrResult();
-      ocrResult.setWordConfidences(baseApi.wordConfidences());
-      ocrResult.setMeanConfidence( baseApi.meanConfidence());
-      if (ViewfinderView.DRAW_REGION_BOXES) {
-        Pixa regions = baseApi.getRegions();
-        ocrResult.setRegionBoundingBoxes(regions.getBoxRects());
-        regions.recycle();
-      }
-      if (ViewfinderView.DRAW_TEXTLINE_BOXES) {
-        Pixa textlines = baseApi.getTextlines();
-        ocrResult.setTextlineBoundingBoxes(textlines.getBoxRects());
-        textlines.recycle();
-      }
-      if (ViewfinderView.DRAW_STRIP_BOXES) {
+
+      // Confidences and boxes all come from one walk over the results, limited to the box levels
+      // that the viewfinder overlay and the annotated bitmap will actually draw.
+      int neededLayers = activity.getNeededLayers();
+      OcrResultExtractor.extract(baseApi, ocrResult, neededLayers);
+      if ((neededLayers & BoundingBoxes.maskOf(BoundingBoxes.STRIP)) != 0) {
         Pixa strips = baseApi.getStrips();
-        ocrResult.setStripBoundingBoxes(strips.getBoxRects());
+        ocrResult.getBoundingBoxes().clear(BoundingBoxes.STRIP);
+        ocrResult.getBoundingBoxes().addAll(BoundingBoxes.STRIP, strips);
         strips.recycle();
       }
-      
-      // Always get the word bounding boxes--we want it for annotating the bitmap after the user
-      // presses the shutter button, in addition to maybe wanting to draw boxes/words during the
-      // continuous mode recognition.
-      Pixa words = baseApi.getWords();
-      ocrResult.setWordBoundingBoxes(words.getBoxRects());
-      words.recycle();
-      
-//      if (ViewfinderView.DRAW_CHARACTER_BOXES || ViewfinderView.DRAW_CHARACTER_TEXT) {
-//        ocrResult.setCharacterBoundingBoxes(baseApi.getCharacters().getBoxRects());
-//      }
     } catch (RuntimeException e) {
       Log.e("OcrRecognizeAsyncTask", "Caught RuntimeException in request to Tesseract. Setting state to CONTINUOUS_STOPPED.");
       e.printStackTrace();
@@ -194,18 +279,24 @@ final class DecodeHandler extends Handler {
       return null;
     }
     timeRequired = System.currentTimeMillis() - start;
-    ocrResult.setBitmap(bitmap);
+    ocrResult.setLuminance(luminance, luminanceWidth, luminanceHeight);
+    luminance = null;
     ocrResult.setText(textResult);
     ocrResult.setRecognitionTimeRequired(timeRequired);
+    ocrResult.setMonitored(watchdog.hasTimeLimit());
+    if (isStopped) {
+      ocrResult.setPartial(true);
+      watchdog.onPartialResult();
+    }
     return ocrResult;
   }
   
-  private void sendContinuousOcrFailMessage() {
+  private Message obtainContinuousOcrFailMessage() {
     Handler handler = activity.getHandler();
-    if (handler != null) {
-      Message message = Message.obtain(handler, R.id.ocr_continuous_decode_failed, new OcrResultFailure(timeRequired));
-      message.sendToTarget();
+    if (handler == null) {
+      return null;
     }
+    return Message.obtain(handler, R.id.ocr_continuous_decode_failed, new OcrResultFailure(timeRequired));
   }
 
 }
@@ -17,6 +17,8 @@
 
 package edu.sfsu.cs.orange.ocr;
 
+import com.googlecode.tesseract.android.TessBaseAPI;
+
 import edu.sfsu.cs.orange.ocr.CaptureActivity;
 import android.os.Handler;
 import android.os.Looper;
@@ -30,11 +32,27 @@ import java.util.concurrent.CountDownLatch;
 final class DecodeThread extends Thread {
 
   private final CaptureActivity activity;
+  private final TessBaseAPI baseApi;
+  private final FrameChangeDetector changeDetector;
+  private final FocusEstimator focusEstimator;
+  private final TextFilter textFilter;
+  private final RecognitionWatchdog watchdog;
+  private final PageSegModeSelector pageSegModeSelector;
+  private final OrientationScriptCache osdCache;
   private Handler handler;
   private final CountDownLatch handlerInitLatch;
 
-  DecodeThread(CaptureActivity activity) {
+  DecodeThread(CaptureActivity activity, TessBaseAPI baseApi, FrameChangeDetector changeDetector,
+      FocusEstimator focusEstimator, TextFilter textFilter, RecognitionWatchdog watchdog,
+      PageSegModeSelector pageSegModeSelector, OrientationScriptCache osdCache) {
     this.activity = activity;
+    this.baseApi = baseApi;
+    this.changeDetector = changeDetector;
+    this.focusEstimator = focusEstimator;
+    this.textFilter = textFilter;
+    this.watchdog = watchdog;
+    this.pageSegModeSelector = pageSegModeSelector;
+    this.osdCache = osdCache;
     handlerInitLatch = new CountDownLatch(1);
   }
 
@@ -50,7 +68,8 @@ final class DecodeThread extends Thread {
   @Override
   public void run() {
     Looper.prepare();
-    handler = new DecodeHandler(activity);
+    handler = new DecodeHandler(activity, baseApi, changeDetector, focusEstimator, textFilter,
+        watchdog, pageSegModeSelector, osdCache);
     handlerInitLatch.countDown();
     Looper.loop();
   }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+/**
+ * Estimates how well focused a preview frame is, so that continuous mode can skip recognition on
+ * frames captured while the lens is still moving.
+ *
+ * The score is the variance of the Laplacian over a subsampled grid of the cropped Y plane. Since
+ * the score also depends on how much contrast the scene has, frames are compared against a peak
+ * that follows the recent best scores rather than against a fixed value. Shared by all decode
+ * threads.
+ */
+final class FocusEstimator {
+
+  /** Distance between sampled pixels, and between each pixel and its neighbours. */
+  private static final int SAMPLE_STEP = 2;
+
+  /** Fraction of the recent peak score a frame must reach to be considered in focus. */
+  private static final float RELATIVE_THRESHOLD = 0.4f;
+
+  /** Factor applied to the peak on every frame, so it follows changes of scene. */
+  private static final float PEAK_DECAY = 0.97f;
+
+  /** Number of frames accepted unconditionally while the peak is being established. */
+  private static final int WARM_UP_FRAMES = 5;
+
+  /** Number of blurry frames in a row after which the camera is asked to refocus. */
+  private static final int BLURRY_FRAMES_BEFORE_REFOCUS = 3;
+
+  private float peakScore;
+  private int framesSeen;
+  private int consecutiveBlurryFrames;
+  private long acceptedCount;
+  private long rejectedCount;
+
+  /**
+   * Computes the focus score of the crop, reading the frame data in place.
+   *
+   * @param source The cropped frame
+   * @return Variance of the Laplacian, higher for sharper images
+   */
+  static float computeScore(PlanarYUVLuminanceSource source) {
+    byte[] data = source.getData();
+    int offset = source.getOffset();
+    int rowStride = source.getRowStride();
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int step = SAMPLE_STEP;
+    int verticalStep = step * rowStride;
+
+    long sum = 0;
+    long sumOfSquares = 0;
+    int count = 0;
+    for (int y = step; y < height - step; y += step) {
+      int rowStart = offset + y * rowStride;
+      for (int x = step; x < width - step; x += step) {
+        int center = rowStart + x;
+        int laplacian = 4 * (data[center] & 0xff)
+            - (data[center - step] & 0xff)
+            - (data[center + step] & 0xff)
+            - (data[center - verticalStep] & 0xff)
+            - (data[center + verticalStep] & 0xff);
+        sum += laplacian;
+        sumOfSquares += laplacian * laplacian;
+        count++;
+      }
+    }
+    if (count == 0) {
+      return 0f;
+    }
+    float mean = sum / (float) count;
+    return sumOfSquares / (float) count - mean * mean;
+  }
+
+  /**
+   * Decides whether a frame is sharp enough to be worth recognizing, and updates the peak.
+   *
+   * @param score Focus score of the frame, from {@link #computeScore}
+   * @return True if the frame should be recognized
+   */
+  synchronized boolean isInFocus(float score) {
+    peakScore = Math.max(score, peakScore * PEAK_DECAY);
+    framesSeen++;
+    if (framesSeen <= WARM_UP_FRAMES || score >= peakScore * RELATIVE_THRESHOLD) {
+      consecutiveBlurryFrames = 0;
+      acceptedCount++;
+      return true;
+    }
+    consecutiveBlurryFrames++;
+    rejectedCount++;
+    return false;
+  }
+
+  /**
+   * @return True if enough blurry frames have been seen in a row that the camera should refocus.
+   *         Returns true only once per run of blurry frames.
+   */
+  synchronized boolean shouldRefocus() {
+    return consecutiveBlurryFrames == BLURRY_FRAMES_BEFORE_REFOCUS;
+  }
+
+  synchronized long getAcceptedCount() {
+    return acceptedCount;
+  }
+
+  synchronized long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "accepted: " + acceptedCount + " rejected: " + rejectedCount + " peak score: "
+        + peakScore;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+/**
+ * Cheap check for whether the viewfinder still shows the same thing as when text was last
+ * recognized, so that continuous mode can keep that result on screen instead of running Tesseract
+ * again while the device is held still.
+ *
+ * Each frame is reduced to a signature of block means over a coarse grid on the cropped Y plane.
+ * A frame whose signature is within a threshold of the one belonging to the last successful result
+ * counts as unchanged. Shared by all decode threads.
+ */
+final class FrameChangeDetector {
+
+  /** Number of blocks along each side of the grid. */
+  static final int GRID_SIZE = 16;
+
+  /** Mean absolute difference between block means, in grey levels, below which nothing changed. */
+  private static final float CHANGE_THRESHOLD = 4.0f;
+
+  /** Only every SAMPLE_STEP-th pixel in each direction contributes to the block means. */
+  private static final int SAMPLE_STEP = 2;
+
+  private final int[] lastSignature = new int[GRID_SIZE * GRID_SIZE];
+  private int lastRotation;
+  private int lastWidth;
+  private int lastHeight;
+  private OcrResult lastResult;
+  private long hits;
+  private long misses;
+
+  /**
+   * Computes the signature of the crop, reading the frame data in place.
+   *
+   * The signature array is owned by the calling decode thread, so it also holds the number of
+   * samples in each block while they are summed, after the block means. This keeps the detector,
+   * which all decode threads share, free of per-frame scratch state, and nothing is allocated per
+   * frame once the array exists.
+   *
+   * @param source The cropped frame
+   * @param signature An array returned by an earlier call, to reuse, or null
+   * @return The mean luminance of each block of the grid, row by row, in the first
+   *         GRID_SIZE * GRID_SIZE elements
+   */
+  static int[] computeSignature(PlanarYUVLuminanceSource source, int[] signature) {
+    int blocks = GRID_SIZE * GRID_SIZE;
+    if (signature == null || signature.length < 2 * blocks) {
+      signature = new int[2 * blocks];
+    }
+    for (int i = 0; i < 2 * blocks; i++) {
+      signature[i] = 0;
+    }
+
+    // Mirroring moves blocks around but the same frame always gives the same signature, so it
+    // can be ignored here.
+    byte[] data = source.getData();
+    int offset = source.getOffset();
+    int rowStride = source.getRowStride();
+    int width = source.getWidth();
+    int height = source.getHeight();
+    for (int y = 0; y < height; y += SAMPLE_STEP) {
+      int rowStart = offset + y * rowStride;
+      int blockRow = y * GRID_SIZE / height * GRID_SIZE;
+      for (int x = 0; x < width; x += SAMPLE_STEP) {
+        int block = blockRow + x * GRID_SIZE / width;
+        signature[block] += data[rowStart + x] & 0xff;
+        signature[blocks + block]++;
+      }
+    }
+    for (int i = 0; i < blocks; i++) {
+      int count = signature[blocks + i];
+      if (count > 0) {
+        signature[i] /= count;
+      }
+    }
+    return signature;
+  }
+
+  /**
+   * @param signature Signature of the current frame
+   * @param width Width of the current frame's crop
+   * @param height Height of the current frame's crop
+   * @param rotation Rotation that will be applied to the current frame before recognition
+   * @return The last successful result, if the frame has not changed noticeably since it was
+   *         recognized so that it can stand for this frame too, or null
+   */
+  synchronized OcrResult getUnchangedResult(int[] signature, int width, int height, int rotation) {
+    if (lastResult == null || rotation != lastRotation || width != lastWidth
+        || height != lastHeight) {
+      misses++;
+      return null;
+    }
+    int blocks = GRID_SIZE * GRID_SIZE;
+    int totalDifference = 0;
+    for (int i = 0; i < blocks; i++) {
+      totalDifference += Math.abs(signature[i] - lastSignature[i]);
+    }
+    if (totalDifference / (float) blocks < CHANGE_THRESHOLD) {
+      hits++;
+      return lastResult;
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Remembers a successful result to compare later frames against.
+   *
+   * @param signature Signature of the frame the result was recognized from
+   * @param width Width of that frame's crop
+   * @param height Height of that frame's crop
+   * @param rotation Rotation applied to that frame
+   * @param result The result
+   */
+  synchronized void setResult(int[] signature, int width, int height, int rotation,
+      OcrResult result) {
+    System.arraycopy(signature, 0, lastSignature, 0, GRID_SIZE * GRID_SIZE);
+    lastWidth = width;
+    lastHeight = height;
+    lastRotation = rotation;
+    lastResult = result;
+  }
+
+  /**
+   * Forgets the last result, so that the next frame is recognized whatever it shows. Called when
+   * recognition restarts, or when the framing rectangle changes.
+   */
+  synchronized void reset() {
+    lastResult = null;
+  }
+
+  /** @return Number of frames that reused the last result */
+  synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** @return Number of frames that needed recognition */
+  synchronized long getMissCount() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    long total = hits + misses;
+    return "hits: " + hits + " misses: " + misses + " hit rate: "
+        + (total == 0 ? 0f : hits / (float) total);
+  }
+}
@@ -0,0 +1,967 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import android.util.Log;
+
+/**
+ * Downloads gzipped language data and uncompresses it, resuming interrupted downloads where they
+ * stopped. Several files are downloaded at once, and large files are downloaded as several byte
+ * ranges at once, over a limited number of connections shared by all downloads.
+ *
+ * The data is inflated into a ".download" file next to the destination, which is renamed into place
+ * only once the whole stream has been read. GZIPInputStream checks the CRC-32 and length in the gzip
+ * trailer as it reaches the end of the stream, so a truncated or corrupted download fails instead of
+ * leaving a damaged file behind.
+ *
+ * The compressed bytes received are also saved to a ".gz.download" file, with a journal recording
+ * the URL, length and validator (ETag or Last-Modified) of the response. If the connection drops,
+ * later attempts, in this run after a backoff or in a later run of the app, request only the missing
+ * bytes with a Range request. If-Range makes the server send the whole file instead if it changed
+ * since. If the result fails the gzip check, the download starts over from the beginning.
+ *
+ * A new download asks for the first range of the file. Servers that accept ranges send it along
+ * with the length of the file, which is then split into ranges that are written at their offsets in
+ * the pre-sized ".gz.download" file, and inflated in one pass once all have arrived. The journal
+ * records which ranges are complete. Files from servers that send the whole file instead are
+ * inflated as they arrive. The inflater cannot be saved, so a resumed download of such a file
+ * inflates the bytes already on storage again before continuing with those from the network.
+ *
+ * Nothing here depends on the activity, so the pipeline can be run against any HTTP server, such as
+ * a local one serving test archives and dropping connections.
+ */
+final class LanguageDataDownloader {
+
+  private static final String TAG = LanguageDataDownloader.class.getSimpleName();
+
+  /** Suffix of the file that data is written to until the download completes. */
+  static final String PARTIAL_SUFFIX = ".download";
+
+  /** Suffix of the file holding the compressed bytes received so far. */
+  private static final String COMPRESSED_PARTIAL_SUFFIX = ".gz" + PARTIAL_SUFFIX;
+
+  /** Suffix of the journal describing the compressed bytes received so far. */
+  private static final String JOURNAL_SUFFIX = ".gz.journal";
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  /** Number of times a download is attempted before giving up. */
+  private static final int MAX_ATTEMPTS = 5;
+
+  /** Delay before the first retry, doubled before each of the following ones. */
+  private static final long INITIAL_BACKOFF_MS = 1000L;
+
+  /** Most connections open at once, across all downloads. */
+  private static final int MAX_CONNECTIONS = 4;
+
+  /** Size of the ranges a file is split into. The first range is requested on its own. */
+  private static final long CHUNK_SIZE = 1024 * 1024L;
+
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private static final long INVALID_LENGTH = -2;
+
+  private static final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS, true);
+
+  // Threads mostly wait on the network, and how many connect at once is limited by the permits
+  private static final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, "download-" + threadNumber.getAndIncrement());
+        }
+      });
+
+  /** Receives the progress of a download. */
+  interface ProgressListener {
+    /** @param percentComplete Progress of all the downloads together, out of 100 */
+    void onProgress(int percentComplete);
+  }
+
+  /** Tells whether the downloads are still wanted. */
+  interface CancellationFlag {
+    /**
+     * Checked between attempts and between buffers of data, on the downloading threads.
+     *
+     * @return True to stop downloading. The bytes saved so far are kept for a later download.
+     */
+    boolean isCancelled();
+  }
+
+  /** Thrown when downloading stops because the downloads are no longer wanted. */
+  static final class CancelledException extends InterruptedIOException {
+    private static final long serialVersionUID = 1L;
+
+    CancelledException() {
+      super("Download cancelled");
+    }
+  }
+
+  /** A gzipped file to download, and where to save it uncompressed. */
+  static final class Download {
+    final URL url;
+    final File destinationFile;
+
+    Download(URL url, File destinationFile) {
+      this.url = url;
+      this.destinationFile = destinationFile;
+    }
+  }
+
+  /** Progress of one file, in compressed bytes. */
+  private static final class Transfer {
+    long length = -1;
+    long received;
+  }
+
+  /** Thrown when the server sends a range that does not belong with the saved ones. */
+  private static final class RangeMismatchException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    RangeMismatchException(String message) {
+      super(message);
+    }
+  }
+
+  /** Counts the bytes read through it, so progress can be measured on the compressed stream. */
+  private static final class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+
+  /** Copies the bytes read through it to a file, so they don't need downloading again. */
+  private static final class TeeInputStream extends FilterInputStream {
+    private final OutputStream copy;
+
+    TeeInputStream(InputStream in, OutputStream copy) {
+      super(in);
+      this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        copy.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        copy.write(buffer, offset, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes would leave a hole in the copy, so read them instead
+      byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+      int read = read(buffer, 0, buffer.length);
+      return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        copy.close();
+      }
+    }
+  }
+
+  /** What is known about the compressed bytes saved by an earlier attempt. */
+  private static final class Journal {
+    private static final String KEY_URL = "url";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_CHUNK_SIZE = "chunkSize";
+    private static final String KEY_COMPLETED_CHUNKS = "completedChunks";
+
+    final String url;
+    final long length;
+    final String validator;
+    final long chunkSize; // 0 if the file is downloaded as one stream
+    private final boolean[] completedChunks;
+
+    Journal(String url, long length, String validator, long chunkSize) {
+      this.url = url;
+      this.length = length;
+      this.validator = validator;
+      this.chunkSize = chunkSize;
+      completedChunks = new boolean[chunkSize > 0 ? (int) ((length + chunkSize - 1) / chunkSize) : 0];
+    }
+
+    boolean isChunked() {
+      return chunkSize > 0;
+    }
+
+    int getChunkCount() {
+      return completedChunks.length;
+    }
+
+    long getChunkStart(int index) {
+      return index * chunkSize;
+    }
+
+    long getChunkLength(int index) {
+      return Math.min(chunkSize, length - getChunkStart(index));
+    }
+
+    synchronized boolean isCompleted(int index) {
+      return completedChunks[index];
+    }
+
+    /** @return Number of bytes in the completed chunks */
+    synchronized long getCompletedLength() {
+      long completedLength = 0;
+      for (int i = 0; i < completedChunks.length; i++) {
+        if (completedChunks[i]) {
+          completedLength += getChunkLength(i);
+        }
+      }
+      return completedLength;
+    }
+
+    /** Records a chunk as saved, and writes the journal so that a later run skips it. */
+    synchronized void markCompleted(int index, File file) throws IOException {
+      completedChunks[index] = true;
+      write(file);
+    }
+
+    /** @return The journal saved in the file, or null if there is none or it can't be read */
+    static Journal read(File file) {
+      if (!file.exists()) {
+        return null;
+      }
+      Properties properties = new Properties();
+      InputStream inputStream = null;
+      try {
+        inputStream = new FileInputStream(file);
+        properties.load(inputStream);
+        Journal journal = new Journal(properties.getProperty(KEY_URL),
+            Long.parseLong(properties.getProperty(KEY_LENGTH, "-1")),
+            properties.getProperty(KEY_VALIDATOR),
+            Long.parseLong(properties.getProperty(KEY_CHUNK_SIZE, "0")));
+        String completed = properties.getProperty(KEY_COMPLETED_CHUNKS, "");
+        for (String index : completed.split(",")) {
+          if (index.length() > 0) {
+            journal.completedChunks[Integer.parseInt(index)] = true;
+          }
+        }
+        return journal;
+      } catch (IOException e) {
+        Log.w(TAG, "Could not read download journal " + file, e);
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Bad download journal " + file, e);
+      } catch (IndexOutOfBoundsException e) {
+        Log.w(TAG, "Bad download journal " + file, e);
+      } finally {
+        closeQuietly(inputStream);
+      }
+      return null;
+    }
+
+    synchronized void write(File file) throws IOException {
+      Properties properties = new Properties();
+      properties.setProperty(KEY_URL, url);
+      properties.setProperty(KEY_LENGTH, Long.toString(length));
+      if (validator != null) {
+        properties.setProperty(KEY_VALIDATOR, validator);
+      }
+      if (isChunked()) {
+        properties.setProperty(KEY_CHUNK_SIZE, Long.toString(chunkSize));
+        StringBuilder completed = new StringBuilder();
+        for (int i = 0; i < completedChunks.length; i++) {
+          if (completedChunks[i]) {
+            if (completed.length() > 0) {
+              completed.append(',');
+            }
+            completed.append(i);
+          }
+        }
+        properties.setProperty(KEY_COMPLETED_CHUNKS, completed.toString());
+      }
+      OutputStream outputStream = new FileOutputStream(file);
+      try {
+        properties.store(outputStream, null);
+      } finally {
+        outputStream.close();
+      }
+    }
+  }
+
+  private final ProgressListener progressListener;
+  private final CancellationFlag cancellationFlag;
+  private final List<Transfer> transfers = new ArrayList<Transfer>();
+  private int percentCompleteLast = -1;
+
+  /**
+   * @param progressListener Receives progress updates, on the downloading threads
+   * @param cancellationFlag Checked to find out whether to stop downloading
+   */
+  LanguageDataDownloader(ProgressListener progressListener, CancellationFlag cancellationFlag) {
+    this.progressListener = progressListener;
+    this.cancellationFlag = cancellationFlag;
+  }
+
+  /**
+   * Downloads several gzipped files at once, uncompressing each to its destination. Progress is
+   * reported for all the files together.
+   *
+   * @param downloads The files to download
+   * @return True if every file was downloaded, uncompressed and moved into place
+   * @throws IOException if a file could not be downloaded, after any others have finished. A
+   *           CancelledException if the downloads were cancelled.
+   */
+  boolean downloadAll(List<Download> downloads) throws IOException {
+    checkCancelled();
+    publishProgress();
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (final Download download : downloads) {
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws IOException {
+          return downloadGzipped(download.url, download.destinationFile);
+        }
+      }));
+    }
+    return awaitAll(futures);
+  }
+
+  /**
+   * Downloads a gzipped file and uncompresses it to the given destination, resuming an earlier
+   * download of the same URL if its bytes were kept, and retrying with a backoff if the connection
+   * fails.
+   *
+   * @param url URL of the gzipped file
+   * @param destinationFile File to save the uncompressed data as, including path
+   * @return True if the file was downloaded, uncompressed and moved into place
+   * @throws IOException if every attempt failed, or the data is not valid gzip
+   */
+  boolean downloadGzipped(URL url, File destinationFile) throws IOException {
+    File compressedFile = new File(destinationFile.getPath() + COMPRESSED_PARTIAL_SUFFIX);
+    File journalFile = new File(destinationFile.getPath() + JOURNAL_SUFFIX);
+    Transfer transfer = new Transfer();
+    synchronized (this) {
+      transfers.add(transfer);
+    }
+    long backoff = INITIAL_BACKOFF_MS;
+    for (int attempt = 1; ; attempt++) {
+      checkCancelled();
+      Journal journal = Journal.read(journalFile);
+      if (journal == null || !url.toString().equals(journal.url)
+          || (journal.isChunked() && compressedFile.length() != journal.length)) {
+        // Bytes saved without a journal, or for another file, can't be trusted
+        journal = null;
+        compressedFile.delete();
+      }
+      boolean isResumed = false;
+      try {
+        boolean isDownloaded;
+        if (journal != null && journal.isChunked()) {
+          isResumed = journal.getCompletedLength() > 0;
+          isDownloaded = downloadChunked(url, destinationFile, compressedFile, journalFile,
+              journal, transfer);
+        } else {
+          long offset = journal == null ? 0 : compressedFile.length();
+          isResumed = offset > 0;
+          isDownloaded = downloadAttempt(url, destinationFile, compressedFile, journalFile,
+              journal, offset, transfer, true);
+        }
+        if (isDownloaded) {
+          discard(compressedFile, journalFile);
+        }
+        return isDownloaded;
+      } catch (CancelledException e) {
+        throw e;
+      } catch (ZipException e) {
+        // The saved and received bytes don't make up a valid gzip stream. If part of them came from
+        // an earlier attempt, the server's file may have changed in between, so start over.
+        Log.w(TAG, "Downloaded data failed the gzip check", e);
+        discard(compressedFile, journalFile);
+        if (!isResumed || attempt >= MAX_ATTEMPTS) {
+          throw e;
+        }
+      } catch (IOException e) {
+        // The bytes received so far stay saved, so the next attempt can resume after them
+        Log.w(TAG, "Download attempt " + attempt + " of " + MAX_ATTEMPTS + " failed for " + url, e);
+        if (attempt >= MAX_ATTEMPTS || cancellationFlag.isCancelled()) {
+          throw e;
+        }
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to retry download");
+        }
+        backoff *= 2;
+      }
+    }
+  }
+
+  /**
+   * Makes one request for the file, resuming after the given offset if possible. A new download
+   * asks for the first range only. If the server sends it, the file is downloaded in ranges by
+   * {@link #downloadChunked}, with that response as the first range. Otherwise the whole file is
+   * inflated from the response into the partial file, and moved into place on success.
+   *
+   * @param isRangeRequested Whether a new download may ask for the first range only
+   * @return False if the server refused the request, or the file could not be moved into place
+   * @throws IOException if the connection failed, or the server answered with a response worth
+   *           retrying, such as 503
+   */
+  private boolean downloadAttempt(URL url, File destinationFile, File compressedFile,
+      File journalFile, Journal journal, long offset, Transfer transfer, boolean isRangeRequested)
+      throws IOException {
+    Log.d(TAG, "Sending GET request to " + url + (offset > 0 ? " from byte " + offset : "") + "...");
+    Journal chunkedJournal = null;
+    acquireConnection();
+    HttpURLConnection connection = openConnection(url);
+    if (offset > 0) {
+      connection.setRequestProperty("Range", "bytes=" + offset + "-");
+      if (journal.validator != null) {
+        connection.setRequestProperty("If-Range", journal.validator);
+      }
+    } else if (isRangeRequested) {
+      connection.setRequestProperty("Range", "bytes=0-" + (CHUNK_SIZE - 1));
+    }
+    try {
+      connection.connect();
+      int responseCode = connection.getResponseCode();
+      long totalLength;
+      if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+        totalLength = getResumedLength(connection, offset, journal.length);
+        if (totalLength == INVALID_LENGTH) {
+          discard(compressedFile, journalFile);
+          throw new IOException("Unexpected Content-Range resuming after " + offset);
+        }
+      } else if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+        // The server sent the first range of a new download
+        totalLength = getResumedLength(connection, 0, -1);
+        if (totalLength == INVALID_LENGTH) {
+          throw new IOException("Unexpected Content-Range for the first range of " + url);
+        }
+        String validator = getValidator(connection);
+        if (totalLength < 0 || (validator == null && totalLength > CHUNK_SIZE)) {
+          // Without a validator, ranges requested later might come from a changed file
+          Log.d(TAG, "Cannot download " + url + " in ranges, requesting the whole file");
+        } else {
+          chunkedJournal = new Journal(url.toString(), totalLength, validator, CHUNK_SIZE);
+          setLength(transfer, totalLength);
+          saveFirstRange(connection, compressedFile, chunkedJournal, transfer);
+          chunkedJournal.markCompleted(0, journalFile);
+        }
+      } else if (responseCode == HttpURLConnection.HTTP_OK) {
+        // The server sent the whole file, either because it ignored the Range header, or because
+        // the file changed since the saved bytes were received
+        if (offset > 0) {
+          Log.d(TAG, "Server sent the whole file, discarding " + offset + " saved bytes");
+        }
+        offset = 0;
+        totalLength = connection.getContentLength();
+        new Journal(url.toString(), totalLength, getValidator(connection), 0).write(journalFile);
+      } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+        discard(compressedFile, journalFile);
+        throw new IOException("Saved download no longer matches the file on the server");
+      } else if (isRetryable(responseCode)) {
+        // The server is having trouble for now, which says nothing about the saved bytes
+        throw new IOException("Got response " + responseCode + " "
+            + connection.getResponseMessage() + " for " + url);
+      } else {
+        Log.e(TAG, "Did not get HTTP_OK response.");
+        Log.e(TAG, "Response code: " + responseCode);
+        Log.e(TAG, "Response message: " + connection.getResponseMessage());
+        return false;
+      }
+
+      if (responseCode == HttpURLConnection.HTTP_OK || offset > 0) {
+        setLength(transfer, totalLength);
+        return inflateResponse(connection, destinationFile, compressedFile, offset, transfer);
+      }
+    } finally {
+      connection.disconnect();
+      connectionPermits.release();
+    }
+    if (chunkedJournal == null) {
+      return downloadAttempt(url, destinationFile, compressedFile, journalFile, null, 0, transfer,
+          false);
+    }
+    return downloadChunked(url, destinationFile, compressedFile, journalFile, chunkedJournal,
+        transfer);
+  }
+
+  /**
+   * Saves the body of a response holding the first range of a file at the start of the compressed
+   * partial file, sized to hold the whole file.
+   */
+  private void saveFirstRange(HttpURLConnection connection, File compressedFile, Journal journal,
+      Transfer transfer) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(compressedFile, "rw");
+    try {
+      file.setLength(journal.length);
+      InputStream inputStream = connection.getInputStream();
+      try {
+        writeRange(inputStream, file.getChannel(), journal, 0, transfer);
+      } finally {
+        inputStream.close();
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Inflates a response into the partial file as it arrives, after the saved bytes if resuming, and
+   * moves the file into place.
+   */
+  private boolean inflateResponse(HttpURLConnection connection, File destinationFile,
+      File compressedFile, long offset, Transfer transfer) throws IOException {
+    File partialFile = new File(destinationFile.getPath() + PARTIAL_SUFFIX);
+    Log.d(TAG, "Streaming download to " + partialFile + "...");
+    long start = System.currentTimeMillis();
+    InputStream received = new TeeInputStream(connection.getInputStream(),
+        new FileOutputStream(compressedFile, offset > 0));
+    InputStream source = received;
+    if (offset > 0) {
+      // The saved bytes are read to the end before any received byte is appended after them
+      source = new SequenceInputStream(new FileInputStream(compressedFile), received);
+    }
+    long uncompressedSize = inflate(source, partialFile, transfer);
+    if (!moveIntoPlace(partialFile, destinationFile)) {
+      return false;
+    }
+    Log.d(TAG, "Downloaded " + connection.getURL() + ", resumed after " + offset
+        + " bytes, uncompressed to " + uncompressedSize + " bytes, in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return true;
+  }
+
+  /**
+   * Downloads the ranges of the file not yet saved, all at once, into the compressed partial file,
+   * then inflates it and moves the result into place.
+   *
+   * @return False if the file could not be moved into place
+   */
+  private boolean downloadChunked(final URL url, File destinationFile, File compressedFile,
+      final File journalFile, final Journal journal, final Transfer transfer) throws IOException {
+    long start = System.currentTimeMillis();
+    setLength(transfer, journal.length);
+    setReceived(transfer, journal.getCompletedLength());
+    RandomAccessFile file = new RandomAccessFile(compressedFile, "rw");
+    try {
+      if (file.length() != journal.length) {
+        file.setLength(journal.length);
+      }
+      final FileChannel channel = file.getChannel();
+      // Checked once, before any range starts: once ranges are running, leaving the loop early
+      // would close the file under them. The ranges check for cancellation themselves.
+      checkCancelled();
+      List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < journal.getChunkCount(); i++) {
+        if (journal.isCompleted(i)) {
+          continue;
+        }
+        final int index = i;
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            downloadRange(url, journal, index, channel, transfer);
+            journal.markCompleted(index, journalFile);
+            return true;
+          }
+        }));
+      }
+      Log.d(TAG, "Downloading " + futures.size() + " of " + journal.getChunkCount() + " ranges of "
+          + url + "...");
+      awaitAll(futures);
+    } catch (RangeMismatchException e) {
+      // The file on the server is not the one the saved ranges came from
+      file.close();
+      discard(compressedFile, journalFile);
+      throw e;
+    } finally {
+      file.close();
+    }
+    long downloadTime = System.currentTimeMillis() - start;
+
+    // Every byte is in place, so the file can be inflated front to back
+    File partialFile = new File(destinationFile.getPath() + PARTIAL_SUFFIX);
+    long uncompressedSize;
+    try {
+      uncompressedSize = inflate(new FileInputStream(compressedFile), partialFile, null);
+    } catch (EOFException e) {
+      // Every range arrived in full, so it is the file itself that is cut short. Retrying would
+      // only inflate the same saved bytes again.
+      throw new ZipException("Truncated gzip stream in " + url);
+    }
+    if (!moveIntoPlace(partialFile, destinationFile)) {
+      return false;
+    }
+    Log.d(TAG, "Downloaded " + journal.length + " bytes in " + journal.getChunkCount()
+        + " ranges in " + downloadTime + " ms, uncompressed to " + uncompressedSize + " bytes in "
+        + (System.currentTimeMillis() - start - downloadTime) + " ms");
+    return true;
+  }
+
+  /** Downloads one range of a file, and writes it at its offset in the channel. */
+  private void downloadRange(URL url, Journal journal, int index, FileChannel channel,
+      Transfer transfer) throws IOException {
+    long first = journal.getChunkStart(index);
+    long length = journal.getChunkLength(index);
+    acquireConnection();
+    HttpURLConnection connection = openConnection(url);
+    connection.setRequestProperty("Range", "bytes=" + first + "-" + (first + length - 1));
+    if (journal.validator != null) {
+      connection.setRequestProperty("If-Range", journal.validator);
+    }
+    try {
+      connection.connect();
+      int responseCode = connection.getResponseCode();
+      if (isRetryable(responseCode)) {
+        throw new IOException("Got response " + responseCode + " for range " + index + " of "
+            + url);
+      }
+      if (responseCode != HttpURLConnection.HTTP_PARTIAL
+          || getResumedLength(connection, first, journal.length) == INVALID_LENGTH) {
+        throw new RangeMismatchException("Got response " + connection.getResponseCode()
+            + " for range " + index + " of " + url);
+      }
+      InputStream inputStream = connection.getInputStream();
+      try {
+        writeRange(inputStream, channel, journal, index, transfer);
+      } finally {
+        inputStream.close();
+      }
+    } finally {
+      connection.disconnect();
+      connectionPermits.release();
+    }
+  }
+
+  /** Writes the body of a response holding one range of a file at its offset in the channel. */
+  private void writeRange(InputStream inputStream, FileChannel channel, Journal journal,
+      int index, Transfer transfer) throws IOException {
+    byte[] bytes = new byte[BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    long position = journal.getChunkStart(index);
+    long remaining = journal.getChunkLength(index);
+    while (remaining > 0) {
+      checkCancelled();
+      int n = inputStream.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+      if (n == -1) {
+        throw new EOFException("Range " + index + " ended " + remaining + " bytes early");
+      }
+      buffer.clear();
+      buffer.limit(n);
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      remaining -= n;
+      addReceived(transfer, n);
+    }
+  }
+
+  /**
+   * Checks that a partial response continues the saved bytes of the same file.
+   *
+   * @param offset Position in the file that the response must start at
+   * @param expectedLength Length of the whole file, or -1 if not known yet
+   * @return Length of the whole compressed file, -1 if unknown, or INVALID_LENGTH if the response
+   *         does not continue the saved bytes
+   */
+  private static long getResumedLength(HttpURLConnection connection, long offset,
+      long expectedLength) {
+    // For example "bytes 1000-4999/5000"
+    String contentRange = connection.getHeaderField("Content-Range");
+    long first = -1;
+    long totalLength = -1;
+    if (contentRange != null && contentRange.startsWith("bytes ")) {
+      int dash = contentRange.indexOf('-');
+      int slash = contentRange.indexOf('/');
+      try {
+        first = Long.parseLong(contentRange.substring(6, dash).trim());
+        String total = contentRange.substring(slash + 1).trim();
+        totalLength = total.equals("*") ? -1 : Long.parseLong(total);
+      } catch (NumberFormatException e) {
+        first = -1;
+      } catch (IndexOutOfBoundsException e) {
+        first = -1;
+      }
+    }
+    if (first != offset || (expectedLength > 0 && totalLength > 0 && totalLength != expectedLength)) {
+      Log.w(TAG, "Content-Range " + contentRange + " does not continue the saved download");
+      return INVALID_LENGTH;
+    }
+    return totalLength > 0 ? totalLength : expectedLength;
+  }
+
+  /**
+   * @return Whether a response with this code is worth retrying later, keeping the saved bytes
+   */
+  private static boolean isRetryable(int responseCode) {
+    return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+        || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+        || responseCode == HTTP_TOO_MANY_REQUESTS;
+  }
+
+  /**
+   * @return A validator for If-Range: a strong ETag, or else the Last-Modified date, or null
+   */
+  private static String getValidator(HttpURLConnection connection) {
+    String eTag = connection.getHeaderField("ETag");
+    if (eTag != null && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return connection.getHeaderField("Last-Modified");
+  }
+
+  private static HttpURLConnection openConnection(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setAllowUserInteraction(false);
+    connection.setInstanceFollowRedirects(true);
+    connection.setRequestMethod("GET");
+    return connection;
+  }
+
+  /** Waits for a connection to become available. Must be followed by a release of the permit. */
+  private static void acquireConnection() throws InterruptedIOException {
+    try {
+      connectionPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection");
+    }
+  }
+
+  /**
+   * Waits for every task to finish, even after one has failed, so that no task still uses files
+   * that the caller may delete.
+   *
+   * @return True if every task returned true
+   * @throws IOException the failure of the first task that failed
+   */
+  private static boolean awaitAll(List<Future<Boolean>> futures) throws IOException {
+    boolean isSuccessful = true;
+    IOException failure = null;
+    for (Future<Boolean> future : futures) {
+      try {
+        isSuccessful &= future.get();
+      } catch (ExecutionException e) {
+        isSuccessful = false;
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        } else if (failure == null) {
+          failure = cause instanceof IOException ? (IOException) cause : new IOException(
+              cause.toString());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for downloads");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return isSuccessful;
+  }
+
+  /**
+   * Inflates a gzip stream into a file.
+   *
+   * @param compressedStream The gzip stream, which is closed when done
+   * @param outputFile File to write the uncompressed data to. Deleted if inflating fails.
+   * @param transfer The download to report progress to, measured on the compressed bytes read, or
+   *          null to not report progress
+   * @return Number of uncompressed bytes written
+   * @throws IOException if reading or writing fails, or the gzip trailer does not match the data
+   */
+  private long inflate(InputStream compressedStream, File outputFile, Transfer transfer)
+      throws IOException {
+    CountingInputStream compressed = new CountingInputStream(new BufferedInputStream(
+        compressedStream, BUFFER_SIZE));
+    GZIPInputStream gzipInputStream = null;
+    OutputStream outputStream = null;
+    long uncompressedSize = 0;
+    boolean isInflated = false;
+    try {
+      gzipInputStream = new GZIPInputStream(compressed, BUFFER_SIZE);
+      outputStream = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length;
+      while ((length = gzipInputStream.read(buffer, 0, BUFFER_SIZE)) != -1) {
+        checkCancelled();
+        outputStream.write(buffer, 0, length);
+        uncompressedSize += length;
+        if (transfer != null) {
+          setReceived(transfer, compressed.getCount());
+        }
+      }
+      outputStream.flush();
+      isInflated = true;
+    } finally {
+      if (outputStream != null) {
+        outputStream.close();
+      }
+      if (gzipInputStream != null) {
+        gzipInputStream.close();
+      } else {
+        compressed.close();
+      }
+      if (!isInflated) {
+        outputFile.delete();
+      }
+    }
+    return uncompressedSize;
+  }
+
+  private void checkCancelled() throws CancelledException {
+    if (cancellationFlag.isCancelled()) {
+      throw new CancelledException();
+    }
+  }
+
+  private static boolean moveIntoPlace(File partialFile, File destinationFile) {
+    if (!partialFile.renameTo(destinationFile)) {
+      Log.e(TAG, "Could not move " + partialFile + " to " + destinationFile);
+      partialFile.delete();
+      return false;
+    }
+    return true;
+  }
+
+  private synchronized void setLength(Transfer transfer, long length) {
+    transfer.length = length;
+    publishProgress();
+  }
+
+  private synchronized void setReceived(Transfer transfer, long received) {
+    transfer.received = received;
+    publishProgress();
+  }
+
+  private synchronized void addReceived(Transfer transfer, long received) {
+    transfer.received += received;
+    publishProgress();
+  }
+
+  /** Reports the progress of all the downloads together, whenever it reaches a new percentage. */
+  private synchronized void publishProgress() {
+    long length = 0;
+    long received = 0;
+    for (Transfer transfer : transfers) {
+      if (transfer.length > 0) {
+        length += transfer.length;
+        received += Math.min(transfer.received, transfer.length);
+      }
+    }
+    int percentComplete = length == 0 ? 0 : (int) (received * 100 / length);
+    if (percentComplete > percentCompleteLast) {
+      progressListener.onProgress(percentComplete);
+      percentCompleteLast = percentComplete;
+    }
+  }
+
+  /** Deletes the saved bytes of a download, so that the next attempt starts from the beginning. */
+  private static void discard(File compressedFile, File journalFile) {
+    compressedFile.delete();
+    journalFile.delete();
+  }
+
+  private static void closeQuietly(InputStream inputStream) {
+    if (inputStream != null) {
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        // Continue
+      }
+    }
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.app.ActivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Process-wide cache of initialized OCR engines, so that they outlive the activity that
+ * initialized them. Recreating CaptureActivity, returning to it from PreferencesActivity, or
+ * switching back to a recently used language then reuses engines instead of loading the
+ * traineddata from storage again.
+ *
+ * Engines are cached per language and engine mode, up to a memory budget, evicting the least
+ * recently used first. The most recently used engines are always kept, since they may be in use.
+ * Tesseract allocates its memory natively, where the Java heap limit does not apply, so the budget
+ * is derived from the memory available on the device instead. The memory held by engines is
+ * estimated from the size of the language data files they loaded.
+ *
+ * Activities acquire the host while they exist and release it when destroyed. Once nothing holds
+ * it, the engines are kept for an idle timeout in case an activity comes back, and then ended to
+ * free their memory.
+ *
+ * Initializations in progress are tracked as well, so that an activity recreated while engines are
+ * being initialized waits for them instead of starting another initialization, which would cancel
+ * the first. All methods must be called on the main thread.
+ */
+final class OcrEngineHost {
+
+  private static final String TAG = OcrEngineHost.class.getSimpleName();
+
+  /** How long the engines are kept after the last activity releases the host. */
+  private static final long IDLE_TIMEOUT_MS = 60 * 1000L;
+
+  /** Memory budget used until {@link #setMemoryBudget} is called. */
+  private static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024L;
+
+  /** Smallest memory budget, which still holds the engines for a typical language. */
+  private static final long MIN_MEMORY_BUDGET = 32 * 1024 * 1024L;
+
+  /** Largest memory budget, however much memory is available. */
+  private static final long MAX_MEMORY_BUDGET = 256 * 1024 * 1024L;
+
+  /** The budget is this fraction of the memory available on the device. */
+  private static final int AVAILABLE_MEMORY_DIVISOR = 8;
+
+  private static OcrEngineHost instance;
+
+  /** A cached set of engines, with the estimate of the memory it holds. */
+  private static final class Entry {
+    final OcrEnginePool enginePool;
+    final long estimatedSize;
+
+    Entry(OcrEnginePool enginePool, long estimatedSize) {
+      this.enginePool = enginePool;
+      this.estimatedSize = estimatedSize;
+    }
+  }
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Runnable endIdleEngines = new Runnable() {
+    @Override
+    public void run() {
+      if (referenceCount == 0) {
+        Log.d(TAG, "Ending idle OCR engines");
+        evictAll();
+      }
+    }
+  };
+
+  // Iterates from least to most recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(4, 0.75f,
+      true);
+  // Initializations in progress, by the settings the engines are being initialized with
+  private final Map<String, OcrInitAsyncTask> pendingInits = new HashMap<String, OcrInitAsyncTask>();
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private long cachedSize;
+  private int referenceCount;
+  private int hits;
+  private int misses;
+  private int evictions;
+  private int initCount;
+  private long totalInitTime;
+
+  private OcrEngineHost() {
+  }
+
+  static OcrEngineHost getInstance() {
+    if (instance == null) {
+      instance = new OcrEngineHost();
+    }
+    return instance;
+  }
+
+  /** Registers a user of the engines, and keeps them from being ended while it exists. */
+  void acquire() {
+    referenceCount++;
+    handler.removeCallbacks(endIdleEngines);
+  }
+
+  /** Unregisters a user of the engines. The engines are ended after a while if no user remains. */
+  void release() {
+    if (referenceCount == 0) {
+      Log.w(TAG, "release() called more times than acquire()");
+      return;
+    }
+    referenceCount--;
+    scheduleIdleTimeoutIfUnused();
+  }
+
+  /**
+   * Computes a memory budget for the native memory of the cached engines, from the memory that the
+   * system reports as available to start new processes without killing background ones. When the
+   * system is already low on memory, the budget is the minimum.
+   *
+   * @param activityManager The system's activity manager
+   * @return Memory budget, in bytes
+   */
+  static long computeMemoryBudget(ActivityManager activityManager) {
+    ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+    activityManager.getMemoryInfo(memoryInfo);
+    if (memoryInfo.lowMemory) {
+      return MIN_MEMORY_BUDGET;
+    }
+    return Math.max(MIN_MEMORY_BUDGET,
+        Math.min(MAX_MEMORY_BUDGET, memoryInfo.availMem / AVAILABLE_MEMORY_DIVISOR));
+  }
+
+  /**
+   * Sets how much memory the cached engines may hold, evicting engines if needed.
+   *
+   * @param bytes Memory budget, in bytes
+   */
+  void setMemoryBudget(long bytes) {
+    memoryBudget = bytes;
+    trimToBudget();
+  }
+
+  /**
+   * Looks up engines initialized with the given parameters, and marks them as the most recently
+   * used. Cached engines for the same language and mode but with a different number of engines are
+   * ended.
+   *
+   * @param languageCode Language code of the traineddata the engines must have loaded
+   * @param ocrEngineMode Engine mode the engines must have been initialized with
+   * @param engineCount Number of engines wanted, including the primary engine
+   * @return The cached engines, or null if they need initializing
+   */
+  OcrEnginePool getEnginePool(String languageCode, int ocrEngineMode, int engineCount) {
+    String key = getKey(languageCode, ocrEngineMode);
+    Entry entry = entries.get(key);
+    if (entry != null && entry.enginePool.getRequestedSize() != engineCount) {
+      evict(key);
+      entry = null;
+    }
+    if (entry == null) {
+      misses++;
+      Log.d(TAG, "Engine cache miss for " + key + ", " + this);
+      return null;
+    }
+    hits++;
+    Log.d(TAG, "Engine cache hit for " + key + ", " + this);
+    return entry.enginePool;
+  }
+
+  /**
+   * Caches newly initialized engines as the most recently used, evicting less recently used
+   * engines to stay within the memory budget.
+   *
+   * @param enginePool The engines, already initialized
+   * @param languageCode Language code of the traineddata the engines loaded
+   * @param ocrEngineMode Engine mode the engines were initialized with
+   * @param estimatedSize Estimate of the native memory held by all the engines, in bytes
+   * @param initTime Time taken to initialize the engines, in milliseconds
+   */
+  void putEnginePool(OcrEnginePool enginePool, String languageCode, int ocrEngineMode,
+      long estimatedSize, long initTime) {
+    String key = getKey(languageCode, ocrEngineMode);
+    Entry previous = entries.get(key);
+    if (previous != null && previous.enginePool != enginePool) {
+      evict(key);
+    } else if (previous != null) {
+      entries.remove(key);
+      cachedSize -= previous.estimatedSize;
+    }
+    entries.put(key, new Entry(enginePool, estimatedSize));
+    cachedSize += estimatedSize;
+    initCount++;
+    totalInitTime += initTime;
+    trimToBudget();
+    Log.d(TAG, "Cached engines for " + key + " (" + estimatedSize / 1024 + " KB, initialized in "
+        + initTime + " ms), " + this);
+    scheduleIdleTimeoutIfUnused();
+  }
+
+  /**
+   * Registers an initialization of engines that has been started, until it finishes or is
+   * cancelled.
+   *
+   * @param initTask The task initializing the engines
+   * @param languageCode Language code of the traineddata the engines are loading
+   * @param ocrEngineMode Engine mode the engines are being initialized with
+   * @param engineCount Number of engines being initialized, including the primary engine
+   */
+  void putPendingInit(OcrInitAsyncTask initTask, String languageCode, int ocrEngineMode,
+      int engineCount) {
+    pendingInits.put(getKey(languageCode, ocrEngineMode) + "/" + engineCount, initTask);
+  }
+
+  /**
+   * Looks up an initialization in progress of engines with the given parameters.
+   *
+   * @param languageCode Language code of the traineddata the engines must be loading
+   * @param ocrEngineMode Engine mode the engines must be initialized with
+   * @param engineCount Number of engines wanted, including the primary engine
+   * @return The task initializing the engines, or null if there is none
+   */
+  OcrInitAsyncTask getPendingInit(String languageCode, int ocrEngineMode, int engineCount) {
+    return pendingInits.get(getKey(languageCode, ocrEngineMode) + "/" + engineCount);
+  }
+
+  /**
+   * Unregisters an initialization of engines, because it has finished or was cancelled.
+   *
+   * @param initTask The task that was initializing the engines
+   */
+  void removePendingInit(OcrInitAsyncTask initTask) {
+    pendingInits.values().remove(initTask);
+  }
+
+  private static String getKey(String languageCode, int ocrEngineMode) {
+    return languageCode + "/" + ocrEngineMode;
+  }
+
+  /** Evicts least recently used engines until within the budget, always keeping the most recent. */
+  private void trimToBudget() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (cachedSize > memoryBudget && entries.size() > 1) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      Log.d(TAG, "Evicting engines for " + eldest.getKey() + " to stay within "
+          + memoryBudget / 1024 + " KB");
+      iterator.remove();
+      endEntry(eldest.getValue());
+    }
+  }
+
+  private void evict(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      endEntry(entry);
+    }
+  }
+
+  private void evictAll() {
+    for (Entry entry : entries.values()) {
+      endEntry(entry);
+    }
+    entries.clear();
+  }
+
+  private void endEntry(Entry entry) {
+    entry.enginePool.end();
+    cachedSize -= entry.estimatedSize;
+    evictions++;
+  }
+
+  private void scheduleIdleTimeoutIfUnused() {
+    handler.removeCallbacks(endIdleEngines);
+    if (referenceCount == 0 && !entries.isEmpty()) {
+      handler.postDelayed(endIdleEngines, IDLE_TIMEOUT_MS);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "cached: " + entries.size() + " (" + cachedSize / 1024 + " of " + memoryBudget / 1024
+        + " KB) hits: " + hits + " misses: " + misses + " evictions: " + evictions
+        + " mean init time: " + (initCount == 0 ? 0 : totalInitTime / initCount) + " ms";
+  }
+}
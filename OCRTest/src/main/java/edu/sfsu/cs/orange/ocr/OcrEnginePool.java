@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * A fixed set of independently initialized Tesseract engines, so that several preview frames can be
+ * recognized at the same time during continuous recognition. A TessBaseAPI instance is not thread
+ * safe, so each engine is only ever used by one decode thread.
+ *
+ * The first engine is the primary engine, which is also used for single-shot recognition.
+ */
+final class OcrEnginePool {
+
+  private static final String TAG = OcrEnginePool.class.getSimpleName();
+
+  /** Text rendered into the image recognized while warming up the engines. */
+  private static final String WARM_UP_TEXT = "Warm up 0123";
+
+  private final List<TessBaseAPI> engines = new ArrayList<TessBaseAPI>();
+  private final int requestedSize;
+
+  /**
+   * @param primaryEngine The engine to use for single-shot recognition
+   * @param requestedSize Total number of engines to initialize, including the primary engine
+   */
+  OcrEnginePool(TessBaseAPI primaryEngine, int requestedSize) {
+    engines.add(primaryEngine);
+    this.requestedSize = Math.max(1, requestedSize);
+  }
+
+  /**
+   * @return One engine per processor core, leaving one core for the camera and UI threads
+   */
+  static int getDefaultSize() {
+    return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  }
+
+  /**
+   * Initializes the engines other than the primary one. Must be called on a background thread,
+   * after the primary engine has been successfully initialized with the same parameters. Engines
+   * that fail to initialize, for example for lack of memory, are left out of the pool.
+   *
+   * @param datapath Parent directory of the tessdata directory
+   * @param language Language code of the traineddata file to load
+   * @param ocrEngineMode Whether to use Tesseract, Cube, or both
+   */
+  void initAdditionalEngines(String datapath, String language, int ocrEngineMode) {
+    int added = 0;
+    for (int i = 1; i < requestedSize; i++) {
+      TessBaseAPI engine = new TessBaseAPI();
+      if (!engine.init(datapath, language, ocrEngineMode)) {
+        Log.w(TAG, "Could not initialize OCR engine " + i + ", continuing with " + size());
+        engine.end();
+        break;
+      }
+      synchronized (this) {
+        engines.add(engine);
+      }
+      added++;
+    }
+    Log.d(TAG, "Initialized " + added + " additional OCR engines");
+  }
+
+  /** @return Number of engines the pool was asked for, which may be more than it could initialize */
+  int getRequestedSize() {
+    return requestedSize;
+  }
+
+  /**
+   * Recognizes a small generated image with the primary engine. The first recognition after
+   * initialization is much slower than later ones, while Tesseract loads its dictionaries and
+   * classifiers, so this moves that delay out of the first real recognition. The additional engines
+   * are left cold, so that they do not add to the time before recognition can start. Must be called
+   * on a background thread, before the engines are used for anything else.
+   */
+  void warmUp() {
+    Bitmap bitmap = Bitmap.createBitmap(240, 48, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    canvas.drawColor(Color.WHITE);
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setColor(Color.BLACK);
+    paint.setTextSize(32);
+    canvas.drawText(WARM_UP_TEXT, 8, 36, paint);
+
+    TessBaseAPI engine = getPrimaryEngine();
+    long start = System.currentTimeMillis();
+    recognize(engine, bitmap);
+    long coldTime = System.currentTimeMillis() - start;
+
+    // Recognize the same image again to compare against steady-state latency
+    start = System.currentTimeMillis();
+    recognize(engine, bitmap);
+    long warmTime = System.currentTimeMillis() - start;
+    bitmap.recycle();
+    StartupMetrics.onWarmedUp(coldTime, warmTime);
+  }
+
+  private static void recognize(TessBaseAPI engine, Bitmap bitmap) {
+    engine.setImage(bitmap);
+    engine.getUTF8Text();
+    engine.clear();
+  }
+
+  synchronized int size() {
+    return engines.size();
+  }
+
+  synchronized TessBaseAPI getEngine(int index) {
+    return engines.get(index);
+  }
+
+  synchronized TessBaseAPI getPrimaryEngine() {
+    return engines.get(0);
+  }
+
+  /** Applies the page segmentation mode to every engine. */
+  synchronized void setPageSegMode(int mode) {
+    for (TessBaseAPI engine : engines) {
+      engine.setPageSegMode(mode);
+    }
+  }
+
+  /** Sets a Tesseract variable on every engine. */
+  synchronized void setVariable(String var, String value) {
+    for (TessBaseAPI engine : engines) {
+      engine.setVariable(var, value);
+    }
+  }
+
+  /** Frees the native resources held by every engine. */
+  synchronized void end() {
+    for (TessBaseAPI engine : engines) {
+      engine.end();
+    }
+  }
+}
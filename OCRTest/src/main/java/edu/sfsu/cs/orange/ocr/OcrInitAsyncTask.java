@@ -15,30 +15,25 @@
  */
 package edu.sfsu.cs.orange.ocr;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.zip.GZIPInputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import org.xeustechnologies.jtar.TarEntry;
-import org.xeustechnologies.jtar.TarInputStream;
-
 import com.googlecode.tesseract.android.TessBaseAPI;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.os.AsyncTask;
 import android.util.Log;
 
@@ -62,22 +57,27 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
     ".traineddata"
   };
 
-  private CaptureActivity activity;
+  private CaptureActivity activity; // Null while no activity is attached
   private Context context;
+  private OcrEnginePool enginePool;
   private TessBaseAPI baseApi;
-  private ProgressDialog dialog;
+  private volatile ProgressDialog dialog;
   private ProgressDialog indeterminateDialog;
+  private String[] lastProgress; // Latest progress published, to show again after attaching
+  private volatile boolean isDataInstalled; // Whether the progress dialog is no longer needed
   private final String languageCode;
   private String languageName;
   private int ocrEngineMode;
+  private long initTime;
+  private long estimatedSize;
 
   /**
    * AsyncTask to asynchronously download data and initialize Tesseract.
    * 
    * @param activity
    *          The calling activity
-   * @param baseApi
-   *          API to the OCR engine
+   * @param enginePool
+   *          The OCR engines to initialize
    * @param dialog
    *          Dialog box with thermometer progress indicator
    * @param indeterminateDialog
@@ -89,12 +89,14 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
    * @param ocrEngineMode
    *          Whether to use Tesseract, Cube, or both
    */
-  OcrInitAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, ProgressDialog dialog, 
+  OcrInitAsyncTask(CaptureActivity activity, OcrEnginePool enginePool, ProgressDialog dialog, 
       ProgressDialog indeterminateDialog, String languageCode, String languageName, 
       int ocrEngineMode) {
     this.activity = activity;
-    this.context = activity.getBaseContext();
-    this.baseApi = baseApi;
+    // The task can outlive the activity, which is then attached again once recreated
+    this.context = activity.getApplicationContext();
+    this.enginePool = enginePool;
+    this.baseApi = enginePool.getPrimaryEngine();
     this.dialog = dialog;
     this.indeterminateDialog = indeterminateDialog;
     this.languageCode = languageCode;
@@ -105,13 +107,69 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
   @Override
   protected void onPreExecute() {
     super.onPreExecute();
+    showProgressDialog("Checking for data installation...", 0);
+    activity.setButtonVisibility(false);
+  }
+
+  /** @return The OCR engines being initialized */
+  OcrEnginePool getEnginePool() {
+    return enginePool;
+  }
+
+  /**
+   * Shows the progress of this initialization in a new instance of the activity, which replaces
+   * the one that started it, and reports the result to the new instance once done.
+   *
+   * @param activity The activity to report to
+   * @param dialog Dialog box with thermometer progress indicator, belonging to the activity
+   * @param indeterminateDialog Dialog box with indeterminate progress indicator, already shown
+   */
+  void attach(CaptureActivity activity, ProgressDialog dialog,
+      ProgressDialog indeterminateDialog) {
+    this.activity = activity;
+    this.dialog = dialog;
+    this.indeterminateDialog = indeterminateDialog;
+    if (!isDataInstalled) {
+      if (lastProgress == null) {
+        showProgressDialog("Checking for data installation...", 0);
+      } else {
+        showProgressDialog(lastProgress[0], Integer.parseInt(lastProgress[1]));
+      }
+    }
+    activity.setButtonVisibility(false);
+  }
+
+  /**
+   * Stops reporting to the given activity, because it is being destroyed. The initialization
+   * continues, and its engines are handed to the host for the next activity to use.
+   *
+   * @param activity The activity being destroyed
+   */
+  void detach(CaptureActivity activity) {
+    if (this.activity != activity) {
+      return;
+    }
+    dismissDialogs();
+    this.activity = null;
+  }
+
+  private void showProgressDialog(String message, int percentComplete) {
     dialog.setTitle("Please wait");
-    dialog.setMessage("Checking for data installation...");
+    dialog.setMessage(message);
     dialog.setIndeterminate(false);
     dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
     dialog.setCancelable(false);
+    dialog.setProgress(percentComplete);
     dialog.show();
-    activity.setButtonVisibility(false);
+  }
+
+  private void dismissDialogs() {
+    try {
+      dialog.dismiss();
+      indeterminateDialog.dismiss();
+    } catch (IllegalArgumentException e) {
+      // Catch "View not attached to window manager" error, and continue
+    }
   }
 
   /**
@@ -171,6 +229,10 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
       isAllCubeDataInstalled = !isAFileMissing;
     }
 
+    // Files that are not packaged in assets are collected here, and downloaded together
+    List<LanguageDataDownloader.Download> downloads = new ArrayList<LanguageDataDownloader.Download>();
+    String ocrLanguageName = languageName;
+
     // If language data files are not present, install them
     boolean installSuccess = false;
     if (!tesseractTestFile.exists()
@@ -193,40 +255,19 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
 
       if (!installSuccess) {
         // File was not packaged in assets, so download it
-        Log.d(TAG, "Downloading " + destinationFilenameBase + ".gz...");
-        try {
-          installSuccess = downloadFile(destinationFilenameBase, downloadFile);
-          if (!installSuccess) {
-            Log.e(TAG, "Download failed");
-            return false;
-          }
-        } catch (IOException e) {
-          Log.e(TAG, "IOException received in doInBackground. Is a network connection available?");
-          return false;
-        }
-      }
-
-      // If we have a tar file at this point because we downloaded v3.01+ data, untar it
-      String extension = destinationFilenameBase.substring(
-          destinationFilenameBase.lastIndexOf('.'),
-          destinationFilenameBase.length());
-      if (extension.equals(".tar")) {
-        try {
-          untar(new File(tessdataDir.toString() + File.separator + destinationFilenameBase), 
-              tessdataDir);
-          installSuccess = true;
-        } catch (IOException e) {
-          Log.e(TAG, "Untar failed");
-          return false;
-        }
+        downloads.add(newDownload(destinationFilenameBase, downloadFile));
       }
-
     } else {
       Log.d(TAG, "Language data for " + languageCode + " already installed in " 
           + tessdataDir.toString());
       installSuccess = true;
     }
 
+    // A request for another language supersedes this one, and waits for this thread to be free
+    if (isCancelled()) {
+      return false;
+    }
+
     // If OSD data file is not present, download it
     File osdFile = new File(tessdataDir, CaptureActivity.OSD_FILENAME_BASE);
     boolean osdInstallSuccess = false;
@@ -234,9 +275,11 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
       // Check assets for language data to install. If not present, download from Internet
       languageName = "orientation and script detection";
       try {
-        // Check for, and delete, partially-downloaded OSD files
-        String[] badFiles = { CaptureActivity.OSD_FILENAME + ".gz.download", 
-            CaptureActivity.OSD_FILENAME + ".gz", CaptureActivity.OSD_FILENAME };
+        // Check for, and delete, partially-downloaded OSD files. Compressed bytes saved by an
+        // interrupted download are kept, so that the download can resume.
+        String[] badFiles = { CaptureActivity.OSD_FILENAME + ".gz", 
+            CaptureActivity.OSD_FILENAME + LanguageDataDownloader.PARTIAL_SUFFIX, 
+            CaptureActivity.OSD_FILENAME };
         for (String filename : badFiles) {
           File file = new File(tessdataDir, filename);
           if (file.exists()) {
@@ -257,26 +300,75 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
 
       if (!osdInstallSuccess) {
         // File was not packaged in assets, so download it
-        Log.d(TAG, "Downloading " + CaptureActivity.OSD_FILENAME + ".gz...");
-        try {
-          osdInstallSuccess = downloadFile(CaptureActivity.OSD_FILENAME, new File(tessdataDir, 
-              CaptureActivity.OSD_FILENAME));
-          if (!osdInstallSuccess) {
-            Log.e(TAG, "Download failed");
-            return false;
-          }
-        } catch (IOException e) {
-          Log.e(TAG, "IOException received in doInBackground. Is a network connection available?");
-          return false;
-        }
+        downloads.add(newDownload(CaptureActivity.OSD_FILENAME, new File(tessdataDir, 
+            CaptureActivity.OSD_FILENAME)));
       }
 
     } else {
       Log.d(TAG, "OSD file already present in " + tessdataDir.toString());
       osdInstallSuccess = true;
     }
+    if (isCancelled()) {
+      return false;
+    }
+
+    // Download the language data and the OSD data at the same time
+    if (!downloads.isEmpty()) {
+      if (!installSuccess) {
+        languageName = ocrLanguageName;
+      }
+      try {
+        if (!downloadFiles(downloads)) {
+          Log.e(TAG, "Download failed");
+          return false;
+        }
+      } catch (LanguageDataDownloader.CancelledException e) {
+        Log.d(TAG, "Download cancelled");
+        return false;
+      } catch (IOException e) {
+        Log.e(TAG, "IOException received in doInBackground. Is a network connection available?");
+        return false;
+      }
+      installSuccess = true;
+      osdInstallSuccess = true;
+    }
+
+    if (isCancelled()) {
+      return false;
+    }
+
+    // If we have a tar file at this point because we downloaded v3.01+ data, untar it
+    String extension = destinationFilenameBase.substring(
+        destinationFilenameBase.lastIndexOf('.'),
+        destinationFilenameBase.length());
+    if (extension.equals(".tar") && downloadFile.exists()) {
+      try {
+        untar(downloadFile, tessdataDir);
+        installSuccess = true;
+      } catch (IOException e) {
+        Log.e(TAG, "Untar failed");
+        return false;
+      }
+    }
+
+    // The OSD data is downloaded as a tar file holding osd.traineddata
+    File osdTarFile = new File(tessdataDir, CaptureActivity.OSD_FILENAME);
+    if (osdTarFile.exists()) {
+      languageName = "orientation and script detection";
+      try {
+        untar(osdTarFile, tessdataDir);
+      } catch (IOException e) {
+        Log.e(TAG, "Untar failed");
+        return false;
+      }
+    }
+    
+    if (isCancelled()) {
+      return false;
+    }
     
     // Dismiss the progress dialog box, revealing the indeterminate dialog box behind it
+    isDataInstalled = true;
     try {
       dialog.dismiss();
     } catch (IllegalArgumentException e) {
@@ -284,12 +376,46 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
     }
 
     // Initialize the OCR engine
+    long start = System.currentTimeMillis();
     if (baseApi.init(destinationDirBase + File.separator, languageCode, ocrEngineMode)) {
+      if (isCancelled()) {
+        return false;
+      }
+      enginePool.initAdditionalEngines(destinationDirBase + File.separator, languageCode, ocrEngineMode);
+      if (isCancelled()) {
+        return false;
+      }
+      initTime = System.currentTimeMillis() - start;
+      StartupMetrics.onEngineInitialized(initTime);
+      enginePool.warmUp();
+      estimatedSize = getLanguageDataSize(tessdataDir) * enginePool.size();
       return installSuccess && osdInstallSuccess;
     }
     return false;
   }
 
+  /**
+   * Returns the total size of the data files for the current language, which each engine loads
+   * into native memory. Used as an estimate of the memory an engine holds. Tesseract unpacks some
+   * of the data as it loads it, so this is a lower bound rather than an exact figure.
+   * 
+   * @param tessdataDir
+   *          Directory containing the language data files
+   * @return Size of the files, in bytes
+   */
+  private long getLanguageDataSize(File tessdataDir) {
+    long size = 0;
+    File[] files = tessdataDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(languageCode + ".")) {
+          size += file.length();
+        }
+      }
+    }
+    return size;
+  }
+
   /**
    * Delete any existing data files for Cube that are present in the given directory. Files may be 
    * partially uncompressed files left over from a failed install, or pre-v3.01 traineddata files.
@@ -315,184 +441,57 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
   }
 
   /**
-   * Download a file from the site specified by DOWNLOAD_BASE, and gunzip to the given destination.
+   * Describes a file to download from the site specified by DOWNLOAD_BASE, and gunzip to the given
+   * destination.
    * 
    * @param sourceFilenameBase
    *          Name of file to download, minus the required ".gz" extension
    * @param destinationFile
    *          Name of file to save the unzipped data to, including path
-   * @return True if download and unzip are successful
-   * @throws IOException
+   * @return The download, to pass to downloadFiles()
    */
-  private boolean downloadFile(String sourceFilenameBase, File destinationFile)
-      throws IOException {
+  private LanguageDataDownloader.Download newDownload(String sourceFilenameBase, 
+      File destinationFile) {
+    Log.d(TAG, "Downloading " + sourceFilenameBase + ".gz...");
     try {
-      return downloadGzippedFileHttp(new URL(CaptureActivity.DOWNLOAD_BASE + sourceFilenameBase + 
-          ".gz"), 
-          destinationFile);
+      return new LanguageDataDownloader.Download(new URL(CaptureActivity.DOWNLOAD_BASE 
+          + sourceFilenameBase + ".gz"), destinationFile);
     } catch (MalformedURLException e) {
       throw new IllegalArgumentException("Bad URL string.");
     }
   }
 
   /**
-   * Download a gzipped file using an HttpURLConnection, and gunzip it to the given destination. 
+   * Download files at the same time, and gunzip each to its destination. The data is uncompressed
+   * without storing the gzipped files beyond what is needed to resume the downloads.
    * 
-   * @param url
-   *          URL to download from
-   * @param destinationFile
-   *          File to save the download as, including path
-   * @return True if response received, destinationFile opened, and unzip
-   *         successful
+   * @param downloads
+   *          The files to download
+   * @return True if every download and unzip is successful
    * @throws IOException
    */
-  private boolean downloadGzippedFileHttp(URL url, File destinationFile)
+  private boolean downloadFiles(List<LanguageDataDownloader.Download> downloads)
       throws IOException {
-    // Send an HTTP GET request for the file
-    Log.d(TAG, "Sending GET request to " + url + "...");
-    publishProgress("Downloading data for " + languageName + "...", "0");
-    HttpURLConnection urlConnection = null;
-    urlConnection = (HttpURLConnection) url.openConnection();
-    urlConnection.setAllowUserInteraction(false);
-    urlConnection.setInstanceFollowRedirects(true);
-    urlConnection.setRequestMethod("GET");
-    urlConnection.connect();
-    if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-      Log.e(TAG, "Did not get HTTP_OK response.");
-      Log.e(TAG, "Response code: " + urlConnection.getResponseCode());
-      Log.e(TAG, "Response message: " + urlConnection.getResponseMessage().toString());
-      return false;
-    }
-    int fileSize = urlConnection.getContentLength();
-    InputStream inputStream = urlConnection.getInputStream();
-    File tempFile = new File(destinationFile.toString() + ".gz.download");
-
-    // Stream the file contents to a local file temporarily
-    Log.d(TAG, "Streaming download to " + destinationFile.toString() + ".gz.download...");
-    final int BUFFER = 8192;
-    FileOutputStream fileOutputStream = null;
-    Integer percentComplete;
-    int percentCompleteLast = 0;
-    try {
-      fileOutputStream = new FileOutputStream(tempFile);
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Exception received when opening FileOutputStream.", e);
-    }
-    int downloaded = 0;
-    byte[] buffer = new byte[BUFFER];
-    int bufferLength = 0;
-    while ((bufferLength = inputStream.read(buffer, 0, BUFFER)) > 0) {
-      fileOutputStream.write(buffer, 0, bufferLength);
-      downloaded += bufferLength;
-      percentComplete = (int) ((downloaded / (float) fileSize) * 100);
-      if (percentComplete > percentCompleteLast) {
-        publishProgress(
-            "Downloading data for " + languageName + "...",
-            percentComplete.toString());
-        percentCompleteLast = percentComplete;
-      }
-    }
-    fileOutputStream.close();
-    if (urlConnection != null) {
-      urlConnection.disconnect();
-    }
-
-    // Uncompress the downloaded temporary file into place, and remove the temporary file
-    try {
-      Log.d(TAG, "Unzipping...");
-      gunzip(tempFile,
-          new File(tempFile.toString().replace(".gz.download", "")));
-      return true;
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "File not available for unzipping.");
-    } catch (IOException e) {
-      Log.e(TAG, "Problem unzipping file.");
-    }
-    return false;
-  }
-
-  /**
-   * Unzips the given Gzipped file to the given destination, and deletes the
-   * gzipped file.
-   * 
-   * @param zippedFile
-   *          The gzipped file to be uncompressed
-   * @param outFilePath
-   *          File to unzip to, including path
-   * @throws FileNotFoundException
-   * @throws IOException
-   */
-  private void gunzip(File zippedFile, File outFilePath)
-      throws FileNotFoundException, IOException {
-    int uncompressedFileSize = getGzipSizeUncompressed(zippedFile);
-    Integer percentComplete;
-    int percentCompleteLast = 0;
-    int unzippedBytes = 0;
-    final Integer progressMin = 0;
-    int progressMax = 100 - progressMin;
-    publishProgress("Uncompressing data for " + languageName + "...",
-        progressMin.toString());
-
-    // If the file is a tar file, just show progress to 50%
-    String extension = zippedFile.toString().substring(
-        zippedFile.toString().length() - 16);
-    if (extension.equals(".tar.gz.download")) {
-      progressMax = 50;
-    }
-    GZIPInputStream gzipInputStream = new GZIPInputStream(
-        new BufferedInputStream(new FileInputStream(zippedFile)));
-    OutputStream outputStream = new FileOutputStream(outFilePath);
-    BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(
-        outputStream);
-
-    final int BUFFER = 8192;
-    byte[] data = new byte[BUFFER];
-    int len;
-    while ((len = gzipInputStream.read(data, 0, BUFFER)) > 0) {
-      bufferedOutputStream.write(data, 0, len);
-      unzippedBytes += len;
-      percentComplete = (int) ((unzippedBytes / (float) uncompressedFileSize) * progressMax)
-          + progressMin;
-
-      if (percentComplete > percentCompleteLast) {
-        publishProgress("Uncompressing data for " + languageName
-            + "...", percentComplete.toString());
-        percentCompleteLast = percentComplete;
-      }
-    }
-    gzipInputStream.close();
-    bufferedOutputStream.flush();
-    bufferedOutputStream.close();
-
-    if (zippedFile.exists()) {
-      zippedFile.delete();
-    }
-  }
-
-  /**
-   * Returns the uncompressed size for a Gzipped file.
-   * 
-   * @param file
-   *          Gzipped file to get the size for
-   * @return Size when uncompressed, in bytes
-   * @throws IOException
-   */
-  private int getGzipSizeUncompressed(File zipFile) throws IOException {
-    RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
-    raf.seek(raf.length() - 4);
-    int b4 = raf.read();
-    int b3 = raf.read();
-    int b2 = raf.read();
-    int b1 = raf.read();
-    raf.close();
-    return (b1 << 24) | (b2 << 16) + (b3 << 8) + b4;
+    LanguageDataDownloader downloader = new LanguageDataDownloader(
+        new LanguageDataDownloader.ProgressListener() {
+          @Override
+          public void onProgress(int percentComplete) {
+            publishProgress("Downloading data for " + languageName + "...", 
+                Integer.toString(percentComplete));
+          }
+        },
+        new LanguageDataDownloader.CancellationFlag() {
+          @Override
+          public boolean isCancelled() {
+            return OcrInitAsyncTask.this.isCancelled();
+          }
+        });
+    return downloader.downloadAll(downloads);
   }
 
   /**
-   * Untar the contents of a tar file into the given directory, ignoring the
-   * relative pathname in the tar file, and delete the tar file.
-   * 
-   * Uses jtar: http://code.google.com/p/jtar/
+   * Untar the contents of a tar file, or of a gzipped tar file, into the given directory, ignoring
+   * the relative pathname in the tar file, and delete the tar file.
    * 
    * @param tarFile
    *          The tar file to be untarred
@@ -502,74 +501,23 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
    */
   private void untar(File tarFile, File destinationDir) throws IOException {
     Log.d(TAG, "Untarring...");
-    final int uncompressedSize = getTarSizeUncompressed(tarFile);
-    Integer percentComplete;
-    int percentCompleteLast = 0;
-    int unzippedBytes = 0;
-    final Integer progressMin = 50;
-    final int progressMax = 100 - progressMin;
-    publishProgress("Uncompressing data for " + languageName + "...",
-        progressMin.toString());
-
-    // Extract all the files
-    TarInputStream tarInputStream = new TarInputStream(new BufferedInputStream(
-        new FileInputStream(tarFile)));
-    TarEntry entry;
-    while ((entry = tarInputStream.getNextEntry()) != null) {
-      int len;
-      final int BUFFER = 8192;
-      byte data[] = new byte[BUFFER];
-      String pathName = entry.getName();
-      String fileName = pathName.substring(pathName.lastIndexOf('/'), pathName.length());
-      OutputStream outputStream = new FileOutputStream(destinationDir + fileName);
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-
-      Log.d(TAG, "Writing " + fileName.substring(1, fileName.length()) + "...");
-      while ((len = tarInputStream.read(data, 0, BUFFER)) != -1) {
-        bufferedOutputStream.write(data, 0, len);
-        unzippedBytes += len;
-        percentComplete = (int) ((unzippedBytes / (float) uncompressedSize) * progressMax)
-            + progressMin;
-        if (percentComplete > percentCompleteLast) {
-          publishProgress("Uncompressing data for " + languageName + "...", 
-              percentComplete.toString());
-          percentCompleteLast = percentComplete;
-        }
+    publishProgress("Uncompressing data for " + languageName + "...", "0");
+    new TarExtractor(new TarExtractor.ProgressListener() {
+      @Override
+      public void onProgress(int percentComplete) {
+        publishProgress("Uncompressing data for " + languageName + "...",
+            Integer.toString(percentComplete));
       }
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
-    }
-    tarInputStream.close();
+    }).extract(tarFile, destinationDir);
 
     if (tarFile.exists()) {
       tarFile.delete();
     }
   }
-  
-  /**
-   * Return the uncompressed size for a Tar file.
-   * 
-   * @param tarFile
-   *          The Tarred file
-   * @return Size when uncompressed, in bytes
-   * @throws IOException
-   */
-  private int getTarSizeUncompressed(File tarFile) throws IOException {
-    int size = 0;
-    TarInputStream tis = new TarInputStream(new BufferedInputStream(
-        new FileInputStream(tarFile)));
-    TarEntry entry;
-    while ((entry = tis.getNextEntry()) != null) {
-      if (!entry.isDirectory()) {
-        size += entry.getSize();
-      }
-    }
-    tis.close();
-    return size;
-  }
 
   /**
-   * Install a file from application assets to device external storage.
+   * Install a file from application assets to device external storage. A copy of the file stored
+   * uncompressed in assets, under the name without ".zip", is preferred over the zip file.
    * 
    * @param sourceFilename
    *          File in assets to install
@@ -577,13 +525,19 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
    *          Directory on SD card to install the file to
    * @param destinationFile
    *          File name for destination, excluding path
-   * @return True if installZipFromAssets returns true
+   * @return True if installStoredAsset or installZipFromAssets returns true
    * @throws IOException
    */
   private boolean installFromAssets(String sourceFilename, File modelRoot,
       File destinationFile) throws IOException {
     String extension = sourceFilename.substring(sourceFilename.lastIndexOf('.'), 
         sourceFilename.length());
+    if (extension.equals(".zip")) {
+      String storedFilename = sourceFilename.substring(0, sourceFilename.lastIndexOf('.'));
+      if (installStoredAsset(storedFilename, new File(modelRoot, storedFilename))) {
+        return true;
+      }
+    }
     try {
       if (extension.equals(".zip")) {
         return installZipFromAssets(sourceFilename, modelRoot, destinationFile);
@@ -597,6 +551,75 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
     return false;
   }
 
+  /**
+   * Copy a file stored uncompressed in application assets to the given destination. The file is
+   * copied by the kernel from the APK, through a channel on the asset's file descriptor, without
+   * passing through a buffer in the app. Files can only be opened this way if the build leaves them
+   * uncompressed, which build.gradle does for traineddata files.
+   * 
+   * @param sourceFilename
+   *          Name of the file in assets
+   * @param destinationFile
+   *          File to copy to, including path
+   * @return True if the file was copied, false if there is no such uncompressed asset
+   * @throws IOException
+   */
+  private boolean installStoredAsset(String sourceFilename, File destinationFile) 
+      throws IOException {
+    AssetFileDescriptor assetFileDescriptor;
+    try {
+      assetFileDescriptor = context.getAssets().openFd(sourceFilename);
+    } catch (FileNotFoundException e) {
+      // Either not in assets, or compressed in the APK
+      return false;
+    }
+    publishProgress("Installing data for " + languageName + "...", "0");
+    long start = System.currentTimeMillis();
+    long length = assetFileDescriptor.getLength();
+    File partialFile = new File(destinationFile.getPath() + LanguageDataDownloader.PARTIAL_SUFFIX);
+    FileInputStream inputStream = null;
+    FileOutputStream outputStream = null;
+    boolean isCopied = false;
+    try {
+      // The descriptor is for the whole APK, so the channel is read from the asset's offset
+      inputStream = new FileInputStream(assetFileDescriptor.getFileDescriptor());
+      outputStream = new FileOutputStream(partialFile);
+      FileChannel inputChannel = inputStream.getChannel();
+      FileChannel outputChannel = outputStream.getChannel();
+      long startOffset = assetFileDescriptor.getStartOffset();
+      long copied = 0;
+      while (copied < length) {
+        long transferred = inputChannel.transferTo(startOffset + copied, length - copied, 
+            outputChannel);
+        if (transferred <= 0) {
+          throw new IOException("Could not copy " + sourceFilename + " after " + copied + " bytes");
+        }
+        copied += transferred;
+      }
+      isCopied = true;
+    } finally {
+      if (outputStream != null) {
+        outputStream.close();
+      }
+      if (inputStream != null) {
+        inputStream.close();
+      }
+      assetFileDescriptor.close();
+      if (!isCopied) {
+        partialFile.delete();
+      }
+    }
+    if (!partialFile.renameTo(destinationFile)) {
+      Log.e(TAG, "Could not move " + partialFile + " to " + destinationFile);
+      partialFile.delete();
+      return false;
+    }
+    publishProgress("Installing data for " + languageName + "...", "100");
+    Log.d(TAG, "Installed " + sourceFilename + " (" + length + " bytes) from assets in " 
+        + (System.currentTimeMillis() - start) + " ms");
+    return true;
+  }
+
   /**
    * Unzip the given Zip file, located in application assets, into the given
    * destination file.
@@ -627,7 +650,7 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
         destinationFile.mkdirs();
       } else {
         // Note getSize() returns -1 when the zipfile does not have the size set
-        long zippedFileSize = entry.getSize();
+        long unzippedFileSize = entry.getSize();
 
         // Create a file output stream
         FileOutputStream outputStream = new FileOutputStream(destinationFile);
@@ -635,7 +658,7 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
 
         // Buffer the output to the file
         BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, BUFFER);
-        int unzippedSize = 0;
+        long unzippedSize = 0;
 
         // Write the contents
         int count = 0;
@@ -645,7 +668,10 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
         while ((count = inputStream.read(data, 0, BUFFER)) != -1) {
           bufferedOutputStream.write(data, 0, count);
           unzippedSize += count;
-          percentComplete = (int) ((unzippedSize / (long) zippedFileSize) * 100);
+          if (unzippedFileSize <= 0) {
+            continue;
+          }
+          percentComplete = (int) (unzippedSize * 100 / unzippedFileSize);
           if (percentComplete > percentCompleteLast) {
             publishProgress("Uncompressing data for " + languageName + "...", 
                 percentComplete.toString(), "0");
@@ -671,6 +697,10 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
   @Override
   protected void onProgressUpdate(String... message) {
     super.onProgressUpdate(message);
+    lastProgress = message;
+    if (activity == null) {
+      return;
+    }
     int percentComplete = 0;
 
     percentComplete = Integer.parseInt(message[1]);
@@ -679,23 +709,47 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
     dialog.show();
   }
 
+  /**
+   * Called instead of onPostExecute() if initialization was superseded by a request for another
+   * language, once doInBackground() has returned. The engines were never handed to the host, so
+   * end them here.
+   */
+  @Override
+  protected void onCancelled() {
+    super.onCancelled();
+    OcrEngineHost.getInstance().removePendingInit(this);
+    if (activity != null) {
+      dismissDialogs();
+    }
+    enginePool.end();
+  }
+
   @Override
   protected void onPostExecute(Boolean result) {
     super.onPostExecute(result);
-    
-    try {
-      indeterminateDialog.dismiss();
-    } catch (IllegalArgumentException e) {
-      // Catch "View not attached to window manager" error, and continue
+    OcrEngineHost.getInstance().removePendingInit(this);
+    if (activity != null) {
+      try {
+        indeterminateDialog.dismiss();
+      } catch (IllegalArgumentException e) {
+        // Catch "View not attached to window manager" error, and continue
+      }
     }
 
     if (result) {
-      // Restart recognition
-      activity.resumeOCR();
-      activity.showLanguageName();
+      // Keep the engines for later instances of the activity, then restart recognition
+      OcrEngineHost.getInstance().putEnginePool(enginePool, languageCode, ocrEngineMode,
+          estimatedSize, initTime);
+      if (activity != null) {
+        activity.resumeOCR();
+        activity.showLanguageName();
+      }
     } else {
-      activity.showErrorMessage("Error", "Network is unreachable - cannot download language data. "
-          + "Please enable network access and restart this app.");
+      enginePool.end();
+      if (activity != null) {
+        activity.showErrorMessage("Error", "Network is unreachable - cannot download language "
+            + "data. Please enable network access and restart this app.");
+      }
     }
   }
 }
\ No newline at end of file
@@ -16,20 +16,16 @@
 package edu.sfsu.cs.orange.ocr;
 
 import java.io.File;
-import java.util.ArrayList;
 
-import android.graphics.Bitmap;
-import android.graphics.Rect;
 import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
-import com.googlecode.leptonica.android.ReadFile;
-import com.googlecode.tesseract.android.ResultIterator;
 import com.googlecode.tesseract.android.TessBaseAPI;
-import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
+
+import edu.sfsu.cs.orange.ocr.camera.CameraManager;
 /**
  * Class to send OCR requests to the OCR engine in a separate thread, send a success/failure message,
  * and dismiss the indeterminate progress dialog box. Used for non-continuous mode OCR only.
@@ -45,21 +41,31 @@ final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
   private byte[] data;
   private int width;
   private int height;
+  private int pageSegMode;
   private OcrResult ocrResult;
   private long timeRequired;
 
-  OcrRecognizeAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, byte[] data, int width, int height) {
+  OcrRecognizeAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, byte[] data, int width, int height,
+      int pageSegMode) {
     this.activity = activity;
     this.baseApi = baseApi;
     this.data = data;
     this.width = width;
     this.height = height;
+    this.pageSegMode = pageSegMode;
   }
 
   @Override
   protected Boolean doInBackground(Void... arg0) {
     long start = System.currentTimeMillis();
-    Bitmap bitmap = activity.getCameraManager().buildLuminanceSource(data, width, height).renderCroppedGreyscaleBitmap();
+    CameraManager cameraManager = activity.getCameraManager();
+    int rotation = cameraManager.getFrameRotation();
+    PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height)
+        .rotate(rotation, null);
+    byte[] luminance = source.getData();
+    int luminanceWidth = source.getWidth();
+    int luminanceHeight = source.getHeight();
+    cameraManager.releaseFrame(data);
     String textResult;
 
     //      if (PERFORM_FISHER_THRESHOLDING) {
@@ -79,7 +85,9 @@ final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
     //      }
 
     try {     
-      baseApi.setImage(ReadFile.readBitmap(bitmap));
+      // Continuous mode may have left the engine in a mode chosen for the last frame
+      baseApi.setPageSegMode(pageSegMode);
+      baseApi.setImage(luminance, luminanceWidth, luminanceHeight, 1, luminanceWidth);
       textResult = baseApi.getUTF8Text();
       timeRequired = System.currentTimeMillis() - start;
 
@@ -88,27 +96,7 @@ final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
         return false;
       }
       ocrResult = new OcrResult();
-      ocrResult.setWordConfidences(baseApi.wordConfidences());
-      ocrResult.setMeanConfidence( baseApi.meanConfidence());
-      ocrResult.setRegionBoundingBoxes(baseApi.getRegions().getBoxRects());
-      ocrResult.setTextlineBoundingBoxes(baseApi.getTextlines().getBoxRects());
-      ocrResult.setWordBoundingBoxes(baseApi.getWords().getBoxRects());
-      ocrResult.setStripBoundingBoxes(baseApi.getStrips().getBoxRects());
-
-      // Iterate through the results.
-      final ResultIterator iterator = baseApi.getResultIterator();
-      int[] lastBoundingBox;
-      ArrayList<Rect> charBoxes = new ArrayList<Rect>();
-      iterator.begin();
-      do {
-          lastBoundingBox = iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL);
-          Rect lastRectBox = new Rect(lastBoundingBox[0], lastBoundingBox[1],
-                  lastBoundingBox[2], lastBoundingBox[3]);
-          charBoxes.add(lastRectBox);
-      } while (iterator.next(PageIteratorLevel.RIL_SYMBOL));
-      iterator.delete();
-      ocrResult.setCharacterBoundingBoxes(charBoxes);
-
+      OcrResultExtractor.extract(baseApi, ocrResult, OcrResult.ANNOTATED_LAYERS);
     } catch (RuntimeException e) {
       Log.e("OcrRecognizeAsyncTask", "Caught RuntimeException in request to Tesseract. Setting state to CONTINUOUS_STOPPED.");
       e.printStackTrace();
@@ -121,9 +109,10 @@ final class OcrRecognizeAsyncTask extends AsyncTask<Void, Void, Boolean> {
       return false;
     }
     timeRequired = System.currentTimeMillis() - start;
-    ocrResult.setBitmap(bitmap);
+    ocrResult.setLuminance(luminance, luminanceWidth, luminanceHeight);
     ocrResult.setText(textResult);
     ocrResult.setRecognitionTimeRequired(timeRequired);
+    ocrResult.setRotation(rotation);
     return true;
   }
 
@@ -28,54 +28,48 @@ import android.graphics.Rect;
  * Encapsulates the result of OCR.
  */
 public class OcrResult {
+
+  /** Mask of the BoundingBoxes levels drawn on the bitmap returned by {@link #getBitmap()}. */
+  static final int ANNOTATED_LAYERS = BoundingBoxes.maskOf(BoundingBoxes.WORD);
+
   private Bitmap bitmap;
+  private byte[] luminance;
+  private int width;
+  private int height;
   private String text;
   
   private int[] wordConfidences;
   private int meanConfidence;
 
-  private List<Rect> regionBoundingBoxes;
-  private List<Rect> textlineBoundingBoxes;
-  private List<Rect> wordBoundingBoxes;
-  private List<Rect> stripBoundingBoxes;  
-  private List<Rect> characterBoundingBoxes;
+  private final BoundingBoxes boundingBoxes = new BoundingBoxes();
 
   private long timestamp;
   private long recognitionTimeRequired;
+  private boolean isPartial;
+  private boolean isMonitored;
+  private int rotation;
 
   private Paint paint;
   
-  public OcrResult(Bitmap bitmap,
-                   String text,
-                   int[] wordConfidences,
-                   int meanConfidence,
-                   List<Rect> regionBoundingBoxes,
-                   List<Rect> textlineBoundingBoxes,
-                   List<Rect> wordBoundingBoxes,
-                   List<Rect> stripBoundingBoxes,
-                   List<Rect> characterBoundingBoxes,
-                   long recognitionTimeRequired) {
-    this.bitmap = bitmap;
-    this.text = text;
-    this.wordConfidences = wordConfidences;
-    this.meanConfidence = meanConfidence;
-    this.regionBoundingBoxes = regionBoundingBoxes;
-    this.textlineBoundingBoxes = textlineBoundingBoxes;
-    this.wordBoundingBoxes = wordBoundingBoxes;
-    this.stripBoundingBoxes = stripBoundingBoxes;
-    this.characterBoundingBoxes = characterBoundingBoxes;
-    this.recognitionTimeRequired = recognitionTimeRequired;
-    this.timestamp = System.currentTimeMillis();
-    
-    this.paint = new Paint();
-  }
-
   public OcrResult() {
     timestamp = System.currentTimeMillis();
     this.paint = new Paint();
   }
 
+  /**
+   * Returns the recognized image, annotated with word bounding boxes. If the result was built from
+   * luminance bytes, the bitmap is rendered on the first call.
+   * 
+   * @return The annotated bitmap, or null if there is no image
+   */
   public Bitmap getBitmap() {
+    if (bitmap == null) {
+      if (luminance == null) {
+        return null;
+      }
+      bitmap = PlanarYUVLuminanceSource.renderGreyscaleBitmap(luminance, 0, width, width, height, false);
+      luminance = null;
+    }
     return getAnnotatedBitmap();
   }
   
@@ -83,13 +77,15 @@ public class OcrResult {
     Canvas canvas = new Canvas(bitmap);
     
     // Draw bounding boxes around each word
-    for (int i = 0; i < wordBoundingBoxes.size(); i++) {
-      paint.setAlpha(0xFF);
-      paint.setColor(0xFF00CCFF);
-      paint.setStyle(Style.STROKE);
-      paint.setStrokeWidth(2);
-      Rect r = wordBoundingBoxes.get(i);
-      canvas.drawRect(r, paint);
+    paint.setAlpha(0xFF);
+    paint.setColor(0xFF00CCFF);
+    paint.setStyle(Style.STROKE);
+    paint.setStrokeWidth(2);
+    for (int i = 0; i < boundingBoxes.size(BoundingBoxes.WORD); i++) {
+      canvas.drawRect(boundingBoxes.getLeft(BoundingBoxes.WORD, i),
+          boundingBoxes.getTop(BoundingBoxes.WORD, i),
+          boundingBoxes.getRight(BoundingBoxes.WORD, i),
+          boundingBoxes.getBottom(BoundingBoxes.WORD, i), paint);
     }    
     
 //    // Draw bounding boxes around each character
@@ -122,29 +118,65 @@ public class OcrResult {
   }
 
   public Point getBitmapDimensions() {
+    if (bitmap == null) {
+      return new Point(width, height);
+    }
     return new Point(bitmap.getWidth(), bitmap.getHeight()); 
   }
   
+  /**
+   * @return The bounding boxes of the result at every level, packed without a Rect per box
+   */
+  public BoundingBoxes getBoundingBoxes() {
+    return boundingBoxes;
+  }
+
+  // The List-based accessors below are views over the packed boxes, kept for compatibility. Each
+  // element read through them is a newly allocated Rect.
+
   public List<Rect> getRegionBoundingBoxes() {
-    return regionBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.REGION);
   }
   
   public List<Rect> getTextlineBoundingBoxes() {
-    return textlineBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.TEXTLINE);
   }
   
   public List<Rect> getWordBoundingBoxes() {
-    return wordBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.WORD);
   }
   
   public List<Rect> getStripBoundingBoxes() {
-  	return stripBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.STRIP);
   }
   
   public List<Rect> getCharacterBoundingBoxes() {
-    return characterBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.CHARACTER);
   }
   
+  /**
+   * @return True if recognition was stopped before it finished, so the text may be incomplete
+   */
+  public boolean isPartial() {
+    return isPartial;
+  }
+
+  /**
+   * @return Rotation, in degrees, that was applied to the preview crop to make the recognized image
+   *         upright. The bounding boxes are in the coordinates of the upright image.
+   */
+  public int getRotation() {
+    return rotation;
+  }
+
+  /**
+   * @return True if the text was recognized through getHOCRText(), so that a time limit could stop
+   *         it. The recognition time then includes building an hOCR page that was not used.
+   */
+  public boolean isMonitored() {
+    return isMonitored;
+  }
+
   public long getTimestamp() {
     return timestamp;
   }
@@ -152,6 +184,21 @@ public class OcrResult {
   public void setBitmap(Bitmap bitmap) {
     this.bitmap = bitmap;
   }
+
+  /**
+   * Sets the recognized image as 8-bit luminance, one byte per pixel with no row padding. The
+   * bitmap is only rendered from it if {@link #getBitmap()} is called.
+   * 
+   * @param luminance Luminance bytes, which this object takes ownership of
+   * @param width Width of the image
+   * @param height Height of the image
+   */
+  public void setLuminance(byte[] luminance, int width, int height) {
+    this.bitmap = null;
+    this.luminance = luminance;
+    this.width = width;
+    this.height = height;
+  }
   
   public void setText(String text) {
     this.text = text;
@@ -168,25 +215,42 @@ public class OcrResult {
   public void setRecognitionTimeRequired(long recognitionTimeRequired) {
     this.recognitionTimeRequired = recognitionTimeRequired;
   }
+
+  public void setPartial(boolean isPartial) {
+    this.isPartial = isPartial;
+  }
+
+  public void setMonitored(boolean isMonitored) {
+    this.isMonitored = isMonitored;
+  }
+
+  public void setRotation(int rotation) {
+    this.rotation = rotation;
+  }
   
   public void setRegionBoundingBoxes(List<Rect> regionBoundingBoxes) {
-    this.regionBoundingBoxes = regionBoundingBoxes;
+    boundingBoxes.clear(BoundingBoxes.REGION);
+    boundingBoxes.addAll(BoundingBoxes.REGION, regionBoundingBoxes);
   }
   
   public void setTextlineBoundingBoxes(List<Rect> textlineBoundingBoxes) {
-    this.textlineBoundingBoxes = textlineBoundingBoxes;
+    boundingBoxes.clear(BoundingBoxes.TEXTLINE);
+    boundingBoxes.addAll(BoundingBoxes.TEXTLINE, textlineBoundingBoxes);
   }
 
   public void setWordBoundingBoxes(List<Rect> wordBoundingBoxes) {
-    this.wordBoundingBoxes = wordBoundingBoxes;
+    boundingBoxes.clear(BoundingBoxes.WORD);
+    boundingBoxes.addAll(BoundingBoxes.WORD, wordBoundingBoxes);
   }
   
   public void setStripBoundingBoxes(List<Rect> stripBoundingBoxes) {
-  	this.stripBoundingBoxes = stripBoundingBoxes;
+    boundingBoxes.clear(BoundingBoxes.STRIP);
+    boundingBoxes.addAll(BoundingBoxes.STRIP, stripBoundingBoxes);
   }
 
   public void setCharacterBoundingBoxes(List<Rect> characterBoundingBoxes) {
-    this.characterBoundingBoxes = characterBoundingBoxes;
+    boundingBoxes.clear(BoundingBoxes.CHARACTER);
+    boundingBoxes.addAll(BoundingBoxes.CHARACTER, characterBoundingBoxes);
   }
   
   @Override
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import com.googlecode.tesseract.android.ResultIterator;
+import com.googlecode.tesseract.android.TessBaseAPI;
+import com.googlecode.tesseract.android.TessBaseAPI.PageIteratorLevel;
+
+/**
+ * Collects the word confidences and the block, line, word and (optionally) symbol bounding boxes
+ * of a recognized page in a single walk over Tesseract's result iterator.
+ *
+ * Calling wordConfidences(), meanConfidence(), getRegions(), getTextlines() and getWords() one
+ * after another traverses the page layout once per call in native code, and marshals a separate
+ * Pixa of component images across JNI for each box level. Walking the iterator once and noting
+ * where the enclosing word, line and block change yields the same information with a few JNI calls
+ * per element.
+ */
+final class OcrResultExtractor {
+
+  private OcrResultExtractor() {
+  }
+
+  /**
+   * Fills in the confidences and packed bounding boxes of a result from the last recognition done
+   * by the given engine. Must be called after getUTF8Text(), and before the engine is cleared.
+   *
+   * Only the box levels in the mask are extracted, each costing a JNI call per element. Levels
+   * left out stay empty and are not marked as materialized. Word confidences are always filled in.
+   * Strips have no iterator level, so they are ignored here.
+   *
+   * @param baseApi The engine that recognized the page
+   * @param ocrResult The result to fill in
+   * @param neededLevels Mask of the BoundingBoxes levels that some consumer of the result will use
+   */
+  static void extract(TessBaseAPI baseApi, OcrResult ocrResult, int neededLevels) {
+    boolean includeBlocks = (neededLevels & BoundingBoxes.maskOf(BoundingBoxes.REGION)) != 0;
+    boolean includeLines = (neededLevels & BoundingBoxes.maskOf(BoundingBoxes.TEXTLINE)) != 0;
+    boolean includeWords = (neededLevels & BoundingBoxes.maskOf(BoundingBoxes.WORD)) != 0;
+    boolean includeSymbols = (neededLevels & BoundingBoxes.maskOf(BoundingBoxes.CHARACTER)) != 0;
+    BoundingBoxes boxes = ocrResult.getBoundingBoxes();
+    if (includeBlocks) {
+      boxes.clear(BoundingBoxes.REGION);
+    }
+    if (includeLines) {
+      boxes.clear(BoundingBoxes.TEXTLINE);
+    }
+    if (includeWords) {
+      boxes.clear(BoundingBoxes.WORD);
+    }
+    if (includeSymbols) {
+      boxes.clear(BoundingBoxes.CHARACTER);
+    }
+    int[] wordConfidences = new int[16];
+    int wordCount = 0;
+    long weightedConfidence = 0;
+    int weight = 0;
+
+    // Step one word at a time unless symbols are wanted. When stepping by symbol, a new word,
+    // line or block starts wherever its bounding box differs from the one before.
+    int level = includeSymbols ? PageIteratorLevel.RIL_SYMBOL : PageIteratorLevel.RIL_WORD;
+    ResultIterator iterator = baseApi.getResultIterator();
+    if (iterator != null) {
+      try {
+        int[] lastBlock = null;
+        int[] lastLine = null;
+        int[] lastWord = null;
+        int lastWordLength = 0;
+        int lastWordConfidence = 0;
+        iterator.begin();
+        do {
+          if (includeBlocks) {
+            int[] block = iterator.getBoundingBox(PageIteratorLevel.RIL_BLOCK);
+            if (!sameBox(block, lastBlock)) {
+              boxes.add(BoundingBoxes.REGION, block);
+              lastBlock = block;
+            }
+          }
+          if (includeLines) {
+            int[] line = iterator.getBoundingBox(PageIteratorLevel.RIL_TEXTLINE);
+            if (!sameBox(line, lastLine)) {
+              boxes.add(BoundingBoxes.TEXTLINE, line);
+              lastLine = line;
+            }
+          }
+          int[] word = includeWords || includeSymbols
+              ? iterator.getBoundingBox(PageIteratorLevel.RIL_WORD) : null;
+          if (!includeSymbols || !sameBox(word, lastWord)) {
+            if (wordCount > 0) {
+              weightedConfidence += lastWordConfidence * lastWordLength;
+              weight += lastWordLength;
+            }
+            if (includeWords) {
+              boxes.add(BoundingBoxes.WORD, word);
+            }
+            lastWord = word;
+            lastWordConfidence = (int) iterator.confidence(PageIteratorLevel.RIL_WORD);
+            if (wordCount == wordConfidences.length) {
+              int[] grown = new int[wordCount * 2];
+              System.arraycopy(wordConfidences, 0, grown, 0, wordCount);
+              wordConfidences = grown;
+            }
+            wordConfidences[wordCount++] = lastWordConfidence;
+
+            // When stepping by symbol, the word's length is counted below instead.
+            lastWordLength = 0;
+            if (!includeSymbols) {
+              String text = iterator.getUTF8Text(PageIteratorLevel.RIL_WORD);
+              lastWordLength = text == null ? 0 : text.length();
+            }
+          }
+          if (includeSymbols) {
+            boxes.add(BoundingBoxes.CHARACTER, iterator.getBoundingBox(PageIteratorLevel.RIL_SYMBOL));
+            lastWordLength++;
+          }
+        } while (iterator.next(level));
+        if (wordCount > 0) {
+          weightedConfidence += lastWordConfidence * lastWordLength;
+          weight += lastWordLength;
+        }
+      } finally {
+        iterator.delete();
+      }
+    }
+
+    // Tesseract's mean confidence weights each word by its number of characters.
+    int[] confidences = new int[wordCount];
+    System.arraycopy(wordConfidences, 0, confidences, 0, wordCount);
+    ocrResult.setWordConfidences(confidences);
+    ocrResult.setMeanConfidence(weight == 0 ? 0 : (int) (weightedConfidence / weight));
+  }
+
+  private static boolean sameBox(int[] box, int[] other) {
+    return other != null && box[0] == other[0] && box[1] == other[1] && box[2] == other[2]
+        && box[3] == other[3];
+  }
+}
@@ -29,30 +29,21 @@ public final class OcrResultText {
   private final int[] wordConfidences;
   private final int meanConfidence;
   private final Point bitmapDimensions;
-  private final List<Rect> regionBoundingBoxes;
-  private final List<Rect> textlineBoundingBoxes;
-  private final List<Rect> stripBoundingBoxes;
-  private final List<Rect> wordBoundingBoxes;
-  private final List<Rect> characterBoundingBoxes;
+  private final BoundingBoxes boundingBoxes;
+  private final int rotation;
   
   public OcrResultText(String text,
                    int[] wordConfidences,
                    int meanConfidence,
                    Point bitmapDimensions,
-                   List<Rect> regionBoundingBoxes,
-                   List<Rect> textlineBoundingBoxes,
-                   List<Rect> stripBoundingBoxes,
-                   List<Rect> wordBoundingBoxes,
-                   List<Rect> characterBoundingBoxes) {
+                   BoundingBoxes boundingBoxes,
+                   int rotation) {
     this.text = text;
     this.wordConfidences = wordConfidences;
     this.meanConfidence = meanConfidence;
     this.bitmapDimensions = bitmapDimensions;
-    this.regionBoundingBoxes = regionBoundingBoxes;
-    this.textlineBoundingBoxes = textlineBoundingBoxes;
-    this.stripBoundingBoxes = stripBoundingBoxes;
-    this.wordBoundingBoxes = wordBoundingBoxes;
-    this.characterBoundingBoxes = characterBoundingBoxes;
+    this.boundingBoxes = boundingBoxes;
+    this.rotation = rotation;
   }
 
   public String getText() {
@@ -71,24 +62,38 @@ public final class OcrResultText {
     return meanConfidence;
   }
   
+  public BoundingBoxes getBoundingBoxes() {
+    return boundingBoxes;
+  }
+
+  /**
+   * @return Rotation, in degrees, that turned the preview crop into the recognized image, whose
+   *         dimensions and coordinates the bitmap dimensions and bounding boxes are given in
+   */
+  public int getRotation() {
+    return rotation;
+  }
+
+  // List-based views over the packed boxes, kept for compatibility
+  
   public List<Rect> getRegionBoundingBoxes() {
-    return regionBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.REGION);
   }
   
   public List<Rect> getTextlineBoundingBoxes() {
-    return textlineBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.TEXTLINE);
   }
   
   public List<Rect> getStripBoundingBoxes() {
-  	return stripBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.STRIP);
   }
   
   public List<Rect> getWordBoundingBoxes() {
-    return wordBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.WORD);
   }
   
   public List<Rect> getCharacterBoundingBoxes() {
-    return characterBoundingBoxes;
+    return boundingBoxes.asList(BoundingBoxes.CHARACTER);
   }
   
   @Override
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Lets a continuous recognition session run orientation and script detection once, instead of on
+ * every frame recognized with PSM_AUTO_OSD. While the device is held the same way and the language
+ * stays the same, the orientation and script of the text in front of the camera rarely change.
+ *
+ * The first frame of a session that would use PSM_AUTO_OSD is recognized with it. Once that frame
+ * yields text, later frames are recognized with PSM_AUTO, which does the same layout analysis
+ * without the OSD pass, the frames being already turned upright for the current device rotation.
+ * A change of device rotation, as reported by the orientation sensor, or a request for full
+ * analysis after poorly recognized frames, makes the next frame run OSD again. Shared by all decode
+ * threads.
+ */
+final class OrientationScriptCache {
+
+  private static final int UNKNOWN_ROTATION = -1;
+
+  private int detectedRotation = UNKNOWN_ROTATION;
+  private long osdFrameCount;
+  private long cachedFrameCount;
+  private long rotationInvalidationCount;
+  private long requestedInvalidationCount;
+  private long sessionCount;
+
+  /** Forgets the detection result, so that the next frame runs OSD. Called when a session starts. */
+  synchronized void invalidate() {
+    detectedRotation = UNKNOWN_ROTATION;
+    sessionCount++;
+  }
+
+  /**
+   * @param pageSegMode The page segmentation mode the frame would be recognized with
+   * @param rotation Rotation applied to the frame to make it upright, in degrees
+   * @param isOsdRequested True to run OSD even if the cached result is still valid
+   * @return The page segmentation mode to actually recognize the frame with
+   */
+  synchronized int resolve(int pageSegMode, int rotation, boolean isOsdRequested) {
+    if (pageSegMode != TessBaseAPI.PageSegMode.PSM_AUTO_OSD) {
+      return pageSegMode;
+    }
+    if (detectedRotation != UNKNOWN_ROTATION) {
+      if (isOsdRequested) {
+        requestedInvalidationCount++;
+        detectedRotation = UNKNOWN_ROTATION;
+      } else if (rotation != detectedRotation) {
+        rotationInvalidationCount++;
+        detectedRotation = UNKNOWN_ROTATION;
+      } else {
+        cachedFrameCount++;
+        return TessBaseAPI.PageSegMode.PSM_AUTO;
+      }
+    }
+    osdFrameCount++;
+    return TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
+  }
+
+  /**
+   * Records the outcome of recognizing a frame with the mode returned by {@link #resolve}.
+   *
+   * @param pageSegMode The page segmentation mode the frame was recognized with
+   * @param rotation Rotation applied to the frame to make it upright, in degrees
+   * @param ocrResult The result, or null if no text was recognized
+   */
+  synchronized void onRecognized(int pageSegMode, int rotation, OcrResult ocrResult) {
+    // Detection on a frame without text tells nothing, so the next frame tries again
+    if (pageSegMode == TessBaseAPI.PageSegMode.PSM_AUTO_OSD && ocrResult != null) {
+      detectedRotation = rotation;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "sessions: " + sessionCount + " OSD frames: " + osdFrameCount + " cached frames: "
+        + cachedFrameCount + " invalidated by rotation: " + rotationInvalidationCount
+        + " by low confidence: " + requestedInvalidationCount;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Chooses the page segmentation mode for each continuous-mode frame when the "Automatic" mode is
+ * selected. Full layout analysis with orientation and script detection is the slowest mode, and is
+ * wasted on a framing rectangle that only holds a line or a short block of text.
+ *
+ * The choice is made from the shape of the upright framing rectangle and the number of lines and
+ * words found in the previous frame. When recognition keeps returning low-confidence results, one
+ * frame is recognized with full layout analysis before going back to the cheaper modes. The time
+ * spent per mode is kept so that the savings can be compared in the log. Shared by all decode
+ * threads.
+ */
+final class PageSegModeSelector {
+
+  /** The modes chosen from, in the order their statistics are reported. */
+  private static final int[] MODES = {
+    TessBaseAPI.PageSegMode.PSM_SINGLE_LINE,
+    TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK,
+    TessBaseAPI.PageSegMode.PSM_SPARSE_TEXT,
+    TessBaseAPI.PageSegMode.PSM_AUTO_OSD,
+  };
+
+  private static final String[] MODE_NAMES = { "single line", "single block", "sparse text", "auto" };
+
+  /** Width to height ratio above which the framing rectangle is assumed to hold one line. */
+  private static final float SINGLE_LINE_ASPECT_RATIO = 5.0f;
+
+  /** Height in pixels below which the framing rectangle is too short for more than one line. */
+  private static final int SINGLE_LINE_MAX_HEIGHT = 48;
+
+  /** Number of lines from which sparse text is considered. */
+  private static final int SPARSE_TEXT_MIN_LINES = 3;
+
+  /** Words per line below which a result with several lines is treated as sparse text. */
+  private static final float SPARSE_TEXT_MAX_WORDS_PER_LINE = 1.5f;
+
+  /** Mean confidence below which a result counts as poorly recognized. */
+  private static final int MIN_CONFIDENCE = 50;
+
+  /** Number of poorly recognized frames in a row after which full layout analysis is tried. */
+  private static final int LOW_CONFIDENCE_FRAMES_BEFORE_ESCALATION = 3;
+
+  private int previousLineCount;
+  private int previousWordCount;
+  private int lowConfidenceFrames;
+  private boolean isEscalationPending;
+  private final long[] frameCounts = new long[MODES.length];
+  private final long[] totalTimes = new long[MODES.length];
+  private long escalationCount;
+
+  /**
+   * @param width Width of the upright framing rectangle, in preview pixels
+   * @param height Height of the upright framing rectangle, in preview pixels
+   * @return The page segmentation mode to recognize the frame with
+   */
+  synchronized int select(int width, int height) {
+    if (isEscalationPending) {
+      isEscalationPending = false;
+      return TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
+    }
+    boolean isThin = height <= SINGLE_LINE_MAX_HEIGHT
+        || width >= height * SINGLE_LINE_ASPECT_RATIO;
+    if (isThin && previousLineCount <= 1) {
+      return TessBaseAPI.PageSegMode.PSM_SINGLE_LINE;
+    }
+    if (previousLineCount >= SPARSE_TEXT_MIN_LINES
+        && previousWordCount < previousLineCount * SPARSE_TEXT_MAX_WORDS_PER_LINE) {
+      return TessBaseAPI.PageSegMode.PSM_SPARSE_TEXT;
+    }
+    return TessBaseAPI.PageSegMode.PSM_SINGLE_BLOCK;
+  }
+
+  /**
+   * Records the outcome of recognizing a frame with the mode returned by {@link #select}.
+   *
+   * @param mode The page segmentation mode the frame was recognized with
+   * @param ocrResult The result, or null if no text was recognized
+   * @param time Time taken by the recognition, in milliseconds
+   */
+  synchronized void onRecognized(int mode, OcrResult ocrResult, long time) {
+    for (int i = 0; i < MODES.length; i++) {
+      if (MODES[i] == mode) {
+        frameCounts[i]++;
+        totalTimes[i] += time;
+      }
+    }
+
+    if (ocrResult == null || ocrResult.getMeanConfidence() < MIN_CONFIDENCE) {
+      lowConfidenceFrames++;
+      if (lowConfidenceFrames >= LOW_CONFIDENCE_FRAMES_BEFORE_ESCALATION
+          && mode != TessBaseAPI.PageSegMode.PSM_AUTO_OSD) {
+        isEscalationPending = true;
+        lowConfidenceFrames = 0;
+        escalationCount++;
+      }
+    } else {
+      lowConfidenceFrames = 0;
+    }
+
+    if (ocrResult != null) {
+      previousLineCount = countLines(ocrResult.getText());
+      previousWordCount = ocrResult.getWordConfidences() == null ? 0
+          : ocrResult.getWordConfidences().length;
+    }
+  }
+
+  private static int countLines(String text) {
+    int lines = 0;
+    boolean isLineEmpty = true;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        if (!isLineEmpty) {
+          lines++;
+        }
+        isLineEmpty = true;
+      } else if (!Character.isWhitespace(c)) {
+        isLineEmpty = false;
+      }
+    }
+    return isLineEmpty ? lines : lines + 1;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < MODES.length; i++) {
+      builder.append(MODE_NAMES[i]).append(": ").append(frameCounts[i]).append(" frames, ")
+          .append(frameCounts[i] == 0 ? 0 : totalTimes[i] / frameCounts[i]).append(" ms mean; ");
+    }
+    return builder.append("escalations: ").append(escalationCount).toString();
+  }
+}
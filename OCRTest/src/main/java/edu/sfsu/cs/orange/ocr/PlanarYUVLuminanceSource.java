@@ -16,7 +16,10 @@
  */
 package edu.sfsu.cs.orange.ocr;
 
+import java.nio.ByteBuffer;
+
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 
 /**
  * This object extends LuminanceSource around an array of YUV data returned from the camera driver,
@@ -26,15 +29,27 @@ import android.graphics.Bitmap;
  * It works for any pixel format where the Y channel is planar and appears first, including
  * YCbCr_420_SP and YCbCr_422_SP.
  *
+ * The crop is never copied unless a caller asks for a copy through getMatrix() or copyMatrix().
+ * Callers that can read strided data should use getData(), getOffset() and getRowStride() (or
+ * asByteBuffer()) to read the crop in place: pixel (x, y) is at getOffset() + y * getRowStride() + x,
+ * or at getOffset() + y * getRowStride() + (getWidth() - 1 - x) if isReversedHorizontally().
+ *
+ * Horizontal mirroring is applied while reading, so the frame data itself is never modified and can
+ * safely be recycled or shared.
+ *
  * The code for this class was adapted from the ZXing project: http://code.google.com/p/zxing
  */
 public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
+  /** Side of the square tiles used when rotating, chosen so a tile's rows stay in cache. */
+  private static final int ROTATION_BLOCK_SIZE = 32;
+
   private final byte[] yuvData;
   private final int dataWidth;
   private final int dataHeight;
   private final int left;
   private final int top;
+  private final boolean reverseHorizontal;
 
   public PlanarYUVLuminanceSource(byte[] yuvData,
                                   int dataWidth,
@@ -55,9 +70,7 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     this.dataHeight = dataHeight;
     this.left = left;
     this.top = top;
-    if (reverseHorizontal) {
-      reverseHorizontal(width, height);
-    }
+    this.reverseHorizontal = reverseHorizontal;
   }
 
   @Override
@@ -70,7 +83,11 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
       row = new byte[width];
     }
     int offset = (y + top) * dataWidth + left;
-    System.arraycopy(yuvData, offset, row, 0, width);
+    if (reverseHorizontal) {
+      reverseCopy(yuvData, offset, row, 0, width);
+    } else {
+      System.arraycopy(yuvData, offset, row, 0, width);
+    }
     return row;
   }
 
@@ -81,16 +98,63 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
     // If the caller asks for the entire underlying image, save the copy and give them the
     // original data. The docs specifically warn that result.length must be ignored.
-    if (width == dataWidth && height == dataHeight) {
+    if (width == dataWidth && height == dataHeight && !reverseHorizontal) {
       return yuvData;
     }
 
+    return copyMatrix(null);
+  }
+
+  /**
+   * @return The underlying frame data. The crop starts at {@link #getOffset()}. Do not modify the
+   *         contents, and do not use it after the frame has been released.
+   */
+  public byte[] getData() {
+    return yuvData;
+  }
+
+  /** @return Index of the top left pixel of the crop within {@link #getData()} */
+  public int getOffset() {
+    return top * dataWidth + left;
+  }
+
+  /** @return Distance between the starts of consecutive rows of the crop, in bytes */
+  public int getRowStride() {
+    return dataWidth;
+  }
+
+  /** @return Whether each row of the crop must be read from right to left */
+  public boolean isReversedHorizontally() {
+    return reverseHorizontal;
+  }
+
+  /**
+   * @return A read-only view of the crop, from its first pixel to its last, over the underlying
+   *         frame data. Position 0 is the top left pixel and rows are {@link #getRowStride()} apart.
+   */
+  public ByteBuffer asByteBuffer() {
+    int length = (getHeight() - 1) * dataWidth + getWidth();
+    return ByteBuffer.wrap(yuvData, getOffset(), length).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the cropped luminance into the given array, without ever handing out the underlying
+   * frame data, so the result stays valid after the frame buffer has been recycled.
+   *
+   * @param matrix An array to reuse, or null. If it is too small, a new array is allocated.
+   * @return The array holding width * height luminance bytes, one row after another
+   */
+  public byte[] copyMatrix(byte[] matrix) {
+    int width = getWidth();
+    int height = getHeight();
     int area = width * height;
-    byte[] matrix = new byte[area];
-    int inputOffset = top * dataWidth + left;
+    if (matrix == null || matrix.length < area) {
+      matrix = new byte[area];
+    }
+    int inputOffset = getOffset();
 
     // If the width matches the full width of the underlying data, perform a single copy.
-    if (width == dataWidth) {
+    if (width == dataWidth && !reverseHorizontal) {
       System.arraycopy(yuvData, inputOffset, matrix, 0, area);
       return matrix;
     }
@@ -98,8 +162,11 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     // Otherwise copy one cropped row at a time.
     byte[] yuv = yuvData;
     for (int y = 0; y < height; y++) {
-      int outputOffset = y * width;
-      System.arraycopy(yuv, inputOffset, matrix, outputOffset, width);
+      if (reverseHorizontal) {
+        reverseCopy(yuv, inputOffset, matrix, y * width, width);
+      } else {
+        System.arraycopy(yuv, inputOffset, matrix, y * width, width);
+      }
       inputOffset += dataWidth;
     }
     return matrix;
@@ -112,30 +179,163 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
   @Override
   public LuminanceSource crop(int left, int top, int width, int height) {
+    // The crop rectangle is given in mirrored coordinates, so flip it back onto the frame data.
+    int dataLeft = reverseHorizontal ? this.left + getWidth() - left - width : this.left + left;
     return new PlanarYUVLuminanceSource(yuvData,
                                         dataWidth,
                                         dataHeight,
-                                        this.left + left,
+                                        dataLeft,
                                         this.top + top,
                                         width,
                                         height,
-                                        false);
+                                        reverseHorizontal);
   }
 
-  public Bitmap renderCroppedGreyscaleBitmap() {
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    return rotate(90, null);
+  }
+
+  /**
+   * Copies the crop into a new luminance-only image, rotated counter-clockwise by the given angle,
+   * with any horizontal mirroring already applied. Only the cropped region is read.
+   *
+   * @param degrees Counter-clockwise rotation: 0, 90, 180 or 270
+   * @param buffer An array to write the rotated image into, or null. If it is too small, a new
+   *          array is allocated.
+   * @return A source spanning the whole of the rotated image, whose data is the buffer written to
+   */
+  public PlanarYUVLuminanceSource rotate(int degrees, byte[] buffer) {
     int width = getWidth();
     int height = getHeight();
-    int[] pixels = new int[width * height];
+    int area = width * height;
+    if (buffer == null || buffer.length < area) {
+      buffer = new byte[area];
+    }
+    if (degrees == 0) {
+      copyMatrix(buffer);
+      return new PlanarYUVLuminanceSource(buffer, width, height, 0, 0, width, height, false);
+    }
+    if (degrees != 90 && degrees != 180 && degrees != 270) {
+      throw new IllegalArgumentException("Unsupported rotation: " + degrees);
+    }
+
+    // Read columns from right to left when mirrored.
     byte[] yuv = yuvData;
-    int inputOffset = top * dataWidth + left;
+    int columnBase = reverseHorizontal ? width - 1 : 0;
+    int columnStep = reverseHorizontal ? -1 : 1;
+    int offset = getOffset();
+
+    if (degrees == 180) {
+      for (int y = 0; y < height; y++) {
+        int rowStart = offset + y * dataWidth + columnBase;
+        int outputOffset = (height - 1 - y) * width + width - 1;
+        for (int x = 0; x < width; x++) {
+          buffer[outputOffset - x] = yuv[rowStart + columnStep * x];
+        }
+      }
+      return new PlanarYUVLuminanceSource(buffer, width, height, 0, 0, width, height, false);
+    }
+
+    // A 90 or 270 degree rotation is a transpose, which reads along rows and writes down columns.
+    // Walking the image one square tile at a time keeps both the rows being read and the rows being
+    // written in cache.
+    for (int blockY = 0; blockY < height; blockY += ROTATION_BLOCK_SIZE) {
+      int yEnd = Math.min(blockY + ROTATION_BLOCK_SIZE, height);
+      for (int blockX = 0; blockX < width; blockX += ROTATION_BLOCK_SIZE) {
+        int xEnd = Math.min(blockX + ROTATION_BLOCK_SIZE, width);
+        for (int y = blockY; y < yEnd; y++) {
+          int rowStart = offset + y * dataWidth + columnBase;
+          if (degrees == 90) {
+            // (x, y) moves to (y, width - 1 - x)
+            for (int x = blockX; x < xEnd; x++) {
+              buffer[(width - 1 - x) * height + y] = yuv[rowStart + columnStep * x];
+            }
+          } else {
+            // (x, y) moves to (height - 1 - y, x)
+            for (int x = blockX; x < xEnd; x++) {
+              buffer[x * height + height - 1 - y] = yuv[rowStart + columnStep * x];
+            }
+          }
+        }
+      }
+    }
+    return new PlanarYUVLuminanceSource(buffer, height, width, 0, 0, height, width, false);
+  }
+
+  /**
+   * Maps a rectangle within an image onto the same pixels after the image has been passed through
+   * {@link #rotate}.
+   *
+   * @param rect The rectangle, in the coordinates of the image before rotation
+   * @param width Width of the image before rotation
+   * @param height Height of the image before rotation
+   * @param degrees Counter-clockwise rotation: 0, 90, 180 or 270
+   * @param result A rectangle to reuse, or null
+   * @return The rectangle in the coordinates of the rotated image
+   */
+  public static Rect rotateRect(Rect rect, int width, int height, int degrees, Rect result) {
+    if (result == null) {
+      result = new Rect();
+    }
+    switch (degrees) {
+    case 90:
+      result.set(rect.top, width - rect.right, rect.bottom, width - rect.left);
+      break;
+    case 180:
+      result.set(width - rect.right, height - rect.bottom, width - rect.left, height - rect.top);
+      break;
+    case 270:
+      result.set(height - rect.bottom, rect.left, height - rect.top, rect.right);
+      break;
+    default:
+      result.set(rect);
+      break;
+    }
+    return result;
+  }
+
+  public Bitmap renderCroppedGreyscaleBitmap() {
+    return renderGreyscaleBitmap(yuvData, getOffset(), dataWidth, getWidth(), getHeight(),
+        reverseHorizontal);
+  }
+
+  /**
+   * Expands 8-bit luminance into an ARGB bitmap suitable for display. Only needed when the image is
+   * actually shown; recognition works on the luminance bytes directly.
+   *
+   * @param luminance Luminance bytes
+   * @param offset Index of the top left pixel
+   * @param rowStride Distance between the starts of consecutive rows
+   * @param width Width of the image
+   * @param height Height of the image
+   * @param reverseHorizontal Whether to read each row from right to left
+   * @return A new bitmap
+   */
+  static Bitmap renderGreyscaleBitmap(byte[] luminance, int offset, int rowStride, int width,
+      int height, boolean reverseHorizontal) {
+    int[] pixels = new int[width * height];
+    int inputOffset = offset;
 
     for (int y = 0; y < height; y++) {
       int outputOffset = y * width;
-      for (int x = 0; x < width; x++) {
-        int grey = yuv[inputOffset + x] & 0xff;
-        pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+      if (reverseHorizontal) {
+        for (int x = 0, x2 = inputOffset + width - 1; x < width; x++, x2--) {
+          int grey = luminance[x2] & 0xff;
+          pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+        }
+      } else {
+        for (int x = 0; x < width; x++) {
+          int grey = luminance[inputOffset + x] & 0xff;
+          pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+        }
       }
-      inputOffset += dataWidth;
+      inputOffset += rowStride;
     }
 
     Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -143,15 +343,10 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     return bitmap;
   }
 
-  private void reverseHorizontal(int width, int height) {
-    byte[] yuvData = this.yuvData;
-    for (int y = 0, rowStart = top * dataWidth + left; y < height; y++, rowStart += dataWidth) {
-      int middle = rowStart + width / 2;
-      for (int x1 = rowStart, x2 = rowStart + width - 1; x1 < middle; x1++, x2--) {
-        byte temp = yuvData[x1];
-        yuvData[x1] = yuvData[x2];
-        yuvData[x2] = temp;
-      }
+  /** Copies length bytes starting at srcPos into dest, last byte first. */
+  private static void reverseCopy(byte[] src, int srcPos, byte[] dest, int destPos, int length) {
+    for (int x1 = srcPos + length - 1, x2 = destPos; x2 < destPos + length; x1--, x2++) {
+      dest[x2] = src[x1];
     }
   }
 
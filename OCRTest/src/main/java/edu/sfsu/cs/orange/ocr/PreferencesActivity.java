@@ -45,6 +45,8 @@ public class PreferencesActivity extends PreferenceActivity implements
   public static final String KEY_CONTINUOUS_PREVIEW = "preference_capture_continuous";
   public static final String KEY_PAGE_SEGMENTATION_MODE = "preference_page_segmentation_mode";
   public static final String KEY_OCR_ENGINE_MODE = "preference_ocr_engine_mode";
+  public static final String KEY_RECOGNITION_THREADS = "preference_recognition_threads";
+  public static final String KEY_RECOGNITION_TIME_LIMIT = "preference_recognition_time_limit";
   public static final String KEY_CHARACTER_BLACKLIST = "preference_character_blacklist";
   public static final String KEY_CHARACTER_WHITELIST = "preference_character_whitelist";
   public static final String KEY_TOGGLE_LIGHT = "preference_toggle_light";
@@ -66,6 +68,8 @@ public class PreferencesActivity extends PreferenceActivity implements
   private ListPreference listPreferenceTargetLanguage;  
   private ListPreference listPreferenceTranslator;
   private ListPreference listPreferenceOcrEngineMode;
+  private ListPreference listPreferenceRecognitionThreads;
+  private ListPreference listPreferenceRecognitionTimeLimit;
   private EditTextPreference editTextPreferenceCharacterBlacklist;
   private EditTextPreference editTextPreferenceCharacterWhitelist;
   private ListPreference listPreferencePageSegmentationMode;
@@ -90,6 +94,8 @@ public class PreferencesActivity extends PreferenceActivity implements
     listPreferenceTargetLanguage = (ListPreference) getPreferenceScreen().findPreference(KEY_TARGET_LANGUAGE_PREFERENCE);
     listPreferenceTranslator = (ListPreference) getPreferenceScreen().findPreference(KEY_TRANSLATOR);    
     listPreferenceOcrEngineMode = (ListPreference) getPreferenceScreen().findPreference(KEY_OCR_ENGINE_MODE);
+    listPreferenceRecognitionThreads = (ListPreference) getPreferenceScreen().findPreference(KEY_RECOGNITION_THREADS);
+    listPreferenceRecognitionTimeLimit = (ListPreference) getPreferenceScreen().findPreference(KEY_RECOGNITION_TIME_LIMIT);
     editTextPreferenceCharacterBlacklist = (EditTextPreference) getPreferenceScreen().findPreference(KEY_CHARACTER_BLACKLIST);
     editTextPreferenceCharacterWhitelist = (EditTextPreference) getPreferenceScreen().findPreference(KEY_CHARACTER_WHITELIST);
     listPreferencePageSegmentationMode = (ListPreference) getPreferenceScreen().findPreference(KEY_PAGE_SEGMENTATION_MODE);
@@ -138,6 +144,10 @@ public class PreferencesActivity extends PreferenceActivity implements
       listPreferencePageSegmentationMode.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_PAGE_SEGMENTATION_MODE));
     } else if (key.equals(KEY_OCR_ENGINE_MODE)) {
       listPreferenceOcrEngineMode.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_OCR_ENGINE_MODE));
+    } else if (key.equals(KEY_RECOGNITION_THREADS)) {
+      listPreferenceRecognitionThreads.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_RECOGNITION_THREADS));
+    } else if (key.equals(KEY_RECOGNITION_TIME_LIMIT)) {
+      listPreferenceRecognitionTimeLimit.setSummary(sharedPreferences.getString(key, CaptureActivity.DEFAULT_RECOGNITION_TIME_LIMIT));
     } else if (key.equals(KEY_CHARACTER_BLACKLIST)) {  
       
       // Save a separate, language-specific character blacklist for this language
@@ -221,6 +231,8 @@ public class PreferencesActivity extends PreferenceActivity implements
     listPreferenceTargetLanguage.setSummary(LanguageCodeHelper.getTranslationLanguageName(getBaseContext(), sharedPreferences.getString(KEY_TARGET_LANGUAGE_PREFERENCE, CaptureActivity.DEFAULT_TARGET_LANGUAGE_CODE)));
     listPreferencePageSegmentationMode.setSummary(sharedPreferences.getString(KEY_PAGE_SEGMENTATION_MODE, CaptureActivity.DEFAULT_PAGE_SEGMENTATION_MODE));
     listPreferenceOcrEngineMode.setSummary(sharedPreferences.getString(KEY_OCR_ENGINE_MODE, CaptureActivity.DEFAULT_OCR_ENGINE_MODE));
+    listPreferenceRecognitionThreads.setSummary(sharedPreferences.getString(KEY_RECOGNITION_THREADS, CaptureActivity.DEFAULT_RECOGNITION_THREADS));
+    listPreferenceRecognitionTimeLimit.setSummary(sharedPreferences.getString(KEY_RECOGNITION_TIME_LIMIT, CaptureActivity.DEFAULT_RECOGNITION_TIME_LIMIT));
     editTextPreferenceCharacterBlacklist.setSummary(sharedPreferences.getString(KEY_CHARACTER_BLACKLIST, OcrCharacterHelper.getDefaultBlacklist(listPreferenceSourceLanguage.getValue())));
     editTextPreferenceCharacterWhitelist.setSummary(sharedPreferences.getString(KEY_CHARACTER_WHITELIST, OcrCharacterHelper.getDefaultWhitelist(listPreferenceSourceLanguage.getValue())));
     
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Stops continuous-mode recognitions that run over their time budget, so that one hard frame
+ * cannot keep a decode thread busy for seconds. Stopping is cooperative: TessBaseAPI.stop() sets a
+ * flag that Tesseract's progress monitor checks between words, after which the recognition ends
+ * with whatever it has recognized so far.
+ *
+ * Each decode thread holds one {@link Deadline} for its engine. Shared by all decode threads.
+ */
+final class RecognitionWatchdog {
+
+  /** The time budget of one engine's current recognition. */
+  final class Deadline implements Runnable {
+    private final TessBaseAPI engine;
+    private boolean active;
+    private boolean expired;
+
+    private Deadline(TessBaseAPI engine) {
+      this.engine = engine;
+    }
+
+    /**
+     * Starts timing a recognition. Must be followed by a call to {@link #finish()}. Does nothing if
+     * there is no time limit.
+     */
+    void start() {
+      if (!hasTimeLimit()) {
+        return;
+      }
+      synchronized (RecognitionWatchdog.this) {
+        active = true;
+        expired = false;
+        startedCount++;
+      }
+      handler.postDelayed(this, timeLimit);
+    }
+
+    /**
+     * Stops timing the recognition. After this returns, the engine will not be stopped on behalf of
+     * this recognition.
+     *
+     * @return True if the recognition was stopped before it completed
+     */
+    boolean finish() {
+      if (!hasTimeLimit()) {
+        return false;
+      }
+      handler.removeCallbacks(this);
+      synchronized (RecognitionWatchdog.this) {
+        active = false;
+        return expired;
+      }
+    }
+
+    /** Called on the main thread when the time budget runs out. */
+    @Override
+    public void run() {
+      synchronized (RecognitionWatchdog.this) {
+        if (active && !expired) {
+          expiredCount++;
+          stopLocked();
+        }
+      }
+    }
+
+    private void stopLocked() {
+      expired = true;
+      engine.stop();
+    }
+  }
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final long timeLimit;
+  private final List<Deadline> deadlines = new ArrayList<Deadline>();
+  private long startedCount;
+  private long expiredCount;
+  private long cancelledCount;
+  private long partialResultCount;
+
+  /**
+   * @param timeLimit Longest time a recognition may take, in milliseconds, or 0 for no limit
+   */
+  RecognitionWatchdog(long timeLimit) {
+    this.timeLimit = timeLimit;
+  }
+
+  /**
+   * @param engine The engine whose recognitions will be timed
+   * @return A deadline to start and finish around every recognition done by the engine
+   */
+  synchronized Deadline newDeadline(TessBaseAPI engine) {
+    Deadline deadline = new Deadline(engine);
+    deadlines.add(deadline);
+    return deadline;
+  }
+
+  /** @return Whether recognitions have a time limit at all */
+  boolean hasTimeLimit() {
+    return timeLimit > 0;
+  }
+
+  /**
+   * Stops every recognition in progress right away, for example because the user pressed the
+   * shutter button and is waiting for the decode threads to become idle. Without a time limit,
+   * recognitions run without a progress monitor and cannot be stopped, so this does nothing.
+   */
+  synchronized void stopAll() {
+    if (!hasTimeLimit()) {
+      return;
+    }
+    for (Deadline deadline : deadlines) {
+      if (deadline.active && !deadline.expired) {
+        cancelledCount++;
+        deadline.stopLocked();
+      }
+    }
+  }
+
+  /** Counts a stopped recognition that still produced some text. */
+  synchronized void onPartialResult() {
+    partialResultCount++;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "recognitions: " + startedCount + " over " + timeLimit + " ms budget: " + expiredCount
+        + " stopped by user: " + cancelledCount + " partial results: " + partialResultCount;
+  }
+}
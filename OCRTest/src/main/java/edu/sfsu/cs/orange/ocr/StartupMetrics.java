@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import android.util.Log;
+
+/**
+ * Measures how long the app takes from launch until it first recognizes text, and where that time
+ * goes. The stages are recorded once per process, and reported together in the log when the first
+ * text is recognized.
+ */
+final class StartupMetrics {
+
+  private static final String TAG = StartupMetrics.class.getSimpleName();
+
+  private static long launchTime;
+  private static long cameraOpenTime = -1;
+  private static long engineInitTime = -1;
+  private static long coldRecognitionTime = -1;
+  private static long warmRecognitionTime = -1;
+  private static long timeToFirstText = -1;
+
+  private StartupMetrics() {
+  }
+
+  /** Called when the first activity of the process is created. Later calls are ignored. */
+  static synchronized void onLaunch() {
+    if (launchTime == 0) {
+      launchTime = System.currentTimeMillis();
+    }
+  }
+
+  /** @param time Time taken to open the camera driver, in milliseconds */
+  static synchronized void onCameraOpened(long time) {
+    if (cameraOpenTime < 0) {
+      cameraOpenTime = time;
+    }
+  }
+
+  /** @param time Time taken to initialize the OCR engines, in milliseconds */
+  static synchronized void onEngineInitialized(long time) {
+    if (engineInitTime < 0) {
+      engineInitTime = time;
+    }
+  }
+
+  /**
+   * @param coldTime Time taken by the first recognition after initialization, in milliseconds
+   * @param warmTime Time taken to recognize the same image again, in milliseconds
+   */
+  static synchronized void onWarmedUp(long coldTime, long warmTime) {
+    Log.d(TAG, "Warm-up recognition took " + coldTime + " ms cold, " + warmTime + " ms warm");
+    if (coldRecognitionTime < 0) {
+      coldRecognitionTime = coldTime;
+      warmRecognitionTime = warmTime;
+    }
+  }
+
+  /**
+   * Called whenever text is recognized from the camera. Reports the startup time the first time.
+   *
+   * @param recognitionTime Time taken by the recognition, in milliseconds
+   */
+  static synchronized void onTextRecognized(long recognitionTime) {
+    if (timeToFirstText >= 0 || launchTime == 0) {
+      return;
+    }
+    timeToFirstText = System.currentTimeMillis() - launchTime;
+    Log.i(TAG, "Launch to first recognized text: " + timeToFirstText
+        + " ms (camera open: " + cameraOpenTime + " ms, engine init: " + engineInitTime
+        + " ms, warm-up cold/warm: " + coldRecognitionTime + "/" + warmRecognitionTime
+        + " ms, first recognition: " + recognitionTime + " ms)");
+  }
+
+  /**
+   * @return Time from launch until text was first recognized, in milliseconds, or -1 until then
+   */
+  static synchronized long getTimeToFirstText() {
+    return timeToFirstText;
+  }
+}
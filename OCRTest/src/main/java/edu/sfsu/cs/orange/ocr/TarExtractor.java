@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+import org.xeustechnologies.jtar.TarEntry;
+import org.xeustechnologies.jtar.TarInputStream;
+
+import android.util.Log;
+
+/**
+ * Extracts the files of a tar archive, or of a gzipped tar archive, into a directory, ignoring the
+ * relative pathnames in the archive.
+ *
+ * The archive is read once. Each file is created at the size given in its entry header before its
+ * contents are written through one buffer reused for every entry.
+ *
+ * Progress is measured on how much of the archive file has been read, rather than on the sizes in
+ * the entry headers. A tar file has no index, so summing those sizes up front means reading the
+ * whole archive an extra time before extracting anything, and inflating it twice if it is gzipped.
+ *
+ * Uses jtar: http://code.google.com/p/jtar/
+ */
+final class TarExtractor {
+
+  private static final String TAG = TarExtractor.class.getSimpleName();
+
+  /** Size of the buffer shared by all the entries of an archive while extracting it. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Receives the progress of an extraction. */
+  interface ProgressListener {
+    /** @param percentComplete Share of the archive file read so far, out of 100 */
+    void onProgress(int percentComplete);
+  }
+
+  private final ProgressListener progressListener;
+
+  /**
+   * @param progressListener Receives progress updates, on the extracting thread, or null
+   */
+  TarExtractor(ProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Extracts every file of the archive into the given directory. The archive is left in place.
+   *
+   * @param tarFile The tar file, gzipped or not
+   * @param destinationDir The directory to extract into
+   * @return Number of bytes extracted
+   * @throws IOException if reading or writing fails, or the archive ends inside a file
+   */
+  long extract(File tarFile, File destinationDir) throws IOException {
+    long start = System.currentTimeMillis();
+    long archiveSize = tarFile.length();
+    long extractedBytes = 0;
+    int percentCompleteLast = 0;
+
+    FileInputStream fileInputStream = new FileInputStream(tarFile);
+    FileChannel archiveChannel = fileInputStream.getChannel();
+    InputStream inputStream = new BufferedInputStream(fileInputStream, BUFFER_SIZE);
+    if (isGzipped(tarFile)) {
+      inputStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+    TarInputStream tarInputStream = new TarInputStream(inputStream);
+    byte[] data = new byte[BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    try {
+      TarEntry entry;
+      while ((entry = tarInputStream.getNextEntry()) != null) {
+        String pathName = entry.getName();
+        String fileName = pathName.substring(pathName.lastIndexOf('/') + 1);
+        if (entry.isDirectory() || fileName.length() == 0) {
+          continue;
+        }
+        Log.d(TAG, "Writing " + fileName + "...");
+        RandomAccessFile outputFile = new RandomAccessFile(new File(destinationDir, fileName), "rw");
+        try {
+          outputFile.setLength(entry.getSize());
+          FileChannel outputChannel = outputFile.getChannel();
+          long position = 0;
+          int len;
+          while ((len = tarInputStream.read(data, 0, data.length)) != -1) {
+            buffer.clear();
+            buffer.limit(len);
+            while (buffer.hasRemaining()) {
+              position += outputChannel.write(buffer, position);
+            }
+            extractedBytes += len;
+
+            // Bytes still in the read buffers are counted as read, which is close enough here
+            int percentComplete = (int) (archiveChannel.position() * 100 / archiveSize);
+            if (percentComplete > percentCompleteLast && progressListener != null) {
+              progressListener.onProgress(percentComplete);
+              percentCompleteLast = percentComplete;
+            }
+          }
+          if (position != entry.getSize()) {
+            throw new IOException("Archive ended inside " + fileName);
+          }
+        } finally {
+          outputFile.close();
+        }
+      }
+    } finally {
+      tarInputStream.close();
+    }
+    Log.d(TAG, "Extracted " + extractedBytes + " bytes from " + archiveSize + " byte archive in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return extractedBytes;
+  }
+
+  /**
+   * @return True if the file starts with the gzip magic number
+   */
+  static boolean isGzipped(File file) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+    } finally {
+      inputStream.close();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Runs AsyncTasks on a dedicated, sized thread pool per kind of work, so that a slow translation
+ * request cannot hold up a recognition, or the other way around. Waiting tasks are started in
+ * order of priority, and a task can be made to cancel the previous task of the same kind that it
+ * supersedes.
+ *
+ * Before Honeycomb, AsyncTask cannot be given an executor, and tasks are run on AsyncTask's own
+ * pool without priorities.
+ */
+public final class TaskExecutor {
+
+  private static final String TAG = TaskExecutor.class.getSimpleName();
+
+  /** Priority for work in the background that nobody is waiting for. */
+  public static final int PRIORITY_LOW = -1;
+
+  /** Priority for most work. */
+  public static final int PRIORITY_NORMAL = 0;
+
+  /** Priority for work the user is waiting on. */
+  public static final int PRIORITY_HIGH = 1;
+
+  /** Recognition of single images. One thread, since recognition uses the whole processor. */
+  public static final TaskExecutor OCR = new TaskExecutor("ocr", 1, false);
+
+  /** Network requests, such as translations. Superseded requests are interrupted. */
+  public static final TaskExecutor NETWORK = new TaskExecutor("network", 2, true);
+
+  /** Installation of language data and initialization of the OCR engines. */
+  public static final TaskExecutor DISK = new TaskExecutor("disk", 1, false);
+
+  /** Wraps a runnable with its priority, so that the queue can order it. */
+  private final class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+    private final Runnable runnable;
+    private final int priority;
+    private final int sequence;
+
+    PrioritizedRunnable(Runnable runnable, int priority) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.sequence = sequenceNumber.getAndIncrement();
+    }
+
+    @Override
+    public void run() {
+      try {
+        runnable.run();
+      } finally {
+        synchronized (TaskExecutor.this) {
+          completedCount++;
+        }
+      }
+    }
+
+    @Override
+    public int compareTo(PrioritizedRunnable other) {
+      // Higher priority first, then first come, first served
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+
+  private final String name;
+  private final boolean interruptSuperseded;
+  private final ThreadPoolExecutor threadPool;
+  private final AtomicInteger sequenceNumber = new AtomicInteger();
+  // Weak, so that finished tasks and the activities they refer to can be collected
+  private final Map<String, WeakReference<AsyncTask<?, ?, ?>>> latestTasks =
+      new HashMap<String, WeakReference<AsyncTask<?, ?, ?>>>();
+  private int maxQueueDepth;
+  private long submittedCount;
+  private long completedCount;
+  private long supersededCount;
+
+  private TaskExecutor(final String name, int threadCount, boolean interruptSuperseded) {
+    this.name = name;
+    this.interruptSuperseded = interruptSuperseded;
+    ThreadFactory threadFactory = new ThreadFactory() {
+      private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, name + "-task-" + threadNumber.getAndIncrement());
+      }
+    };
+    threadPool = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(), threadFactory);
+  }
+
+  /**
+   * Starts an AsyncTask on this executor.
+   *
+   * @param task The task to start
+   * @param priority One of the PRIORITY_ constants of this class
+   * @param supersedeKey If not null, any unfinished task started earlier with the same key is
+   *          cancelled. It is interrupted if this executor interrupts superseded tasks.
+   * @param params Parameters to pass to the task
+   */
+  public <Params> void execute(AsyncTask<Params, ?, ?> task, int priority, String supersedeKey,
+      Params... params) {
+    synchronized (this) {
+      if (supersedeKey != null) {
+        WeakReference<AsyncTask<?, ?, ?>> previousReference = latestTasks.put(supersedeKey,
+            new WeakReference<AsyncTask<?, ?, ?>>(task));
+        AsyncTask<?, ?, ?> previous = previousReference == null ? null : previousReference.get();
+        if (previous != null && previous.getStatus() != AsyncTask.Status.FINISHED
+            && previous.cancel(interruptSuperseded)) {
+          supersededCount++;
+        }
+      }
+      submittedCount++;
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      executeOnThreadPool(task, priority, params);
+    } else {
+      task.execute(params);
+    }
+    Log.d(TAG, this.toString());
+  }
+
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private <Params> void executeOnThreadPool(AsyncTask<Params, ?, ?> task, final int priority,
+      Params... params) {
+    // executeOnExecutor() hands the executor the task's runnable before returning
+    task.executeOnExecutor(new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        threadPool.execute(new PrioritizedRunnable(runnable, priority));
+      }
+    }, params);
+    synchronized (this) {
+      maxQueueDepth = Math.max(maxQueueDepth, threadPool.getQueue().size());
+    }
+  }
+
+  /** @return Number of tasks waiting for a thread */
+  public int getQueueDepth() {
+    return threadPool.getQueue().size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + " tasks submitted: " + submittedCount + " completed: " + completedCount
+        + " superseded: " + supersededCount + " queued: " + getQueueDepth() + " max queued: "
+        + maxQueueDepth;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import android.graphics.Rect;
+
+/**
+ * Estimates whether a preview frame contains any text before it is handed to Tesseract, and where.
+ *
+ * The crop is divided into a grid of cells, and the density of strong horizontal luminance edges
+ * is measured in each. Printed text produces many closely spaced edges as the strokes of each
+ * character are crossed, while walls, sky and other smooth surfaces produce few. Cells whose edge
+ * density falls in the range typical of text are counted, and their bounding box is returned as
+ * the region to recognize.
+ *
+ * Each decode thread uses its own instance.
+ */
+final class TextDetector {
+
+  /** Number of grid cells across the crop. */
+  private static final int CELLS_X = 16;
+
+  /** Number of grid cells down the crop. */
+  private static final int CELLS_Y = 8;
+
+  /** Distance between sampled pixels, in each direction. */
+  private static final int SAMPLE_STEP = 2;
+
+  /** Luminance difference between neighbouring samples that counts as an edge. */
+  private static final int EDGE_THRESHOLD = 40;
+
+  /** Lowest fraction of samples in a cell that must lie on an edge for it to look like text. */
+  private static final float MIN_TEXT_EDGE_DENSITY = 0.08f;
+
+  /** Highest fraction, above which a cell is more likely fine texture or noise. */
+  private static final float MAX_TEXT_EDGE_DENSITY = 0.6f;
+
+  /** Number of text-like cells at which text is considered certain to be present. */
+  private static final int TEXT_CELLS_FOR_CERTAINTY = 4;
+
+  private final int[] edgeCounts = new int[CELLS_X * CELLS_Y];
+  private final int[] sampleCounts = new int[CELLS_X * CELLS_Y];
+  private final Rect textRegion = new Rect();
+
+  /**
+   * Measures the crop, reading the frame data in place. The region containing text is available
+   * from {@link #getTextRegion()} afterwards.
+   *
+   * @param source The cropped frame
+   * @return Likelihood, between 0 and 1, that the crop contains text
+   */
+  float detect(PlanarYUVLuminanceSource source) {
+    byte[] data = source.getData();
+    int offset = source.getOffset();
+    int rowStride = source.getRowStride();
+    int width = source.getWidth();
+    int height = source.getHeight();
+
+    for (int i = 0; i < edgeCounts.length; i++) {
+      edgeCounts[i] = 0;
+      sampleCounts[i] = 0;
+    }
+    for (int y = 0; y < height; y += SAMPLE_STEP) {
+      int rowStart = offset + y * rowStride;
+      int cellRow = y * CELLS_Y / height * CELLS_X;
+      int previous = data[rowStart] & 0xff;
+      for (int x = SAMPLE_STEP; x < width; x += SAMPLE_STEP) {
+        int current = data[rowStart + x] & 0xff;
+        int cell = cellRow + x * CELLS_X / width;
+        if (Math.abs(current - previous) >= EDGE_THRESHOLD) {
+          edgeCounts[cell]++;
+        }
+        sampleCounts[cell]++;
+        previous = current;
+      }
+    }
+
+    int textCells = 0;
+    int minCellX = CELLS_X;
+    int minCellY = CELLS_Y;
+    int maxCellX = -1;
+    int maxCellY = -1;
+    for (int cellY = 0; cellY < CELLS_Y; cellY++) {
+      for (int cellX = 0; cellX < CELLS_X; cellX++) {
+        int cell = cellY * CELLS_X + cellX;
+        if (sampleCounts[cell] == 0) {
+          continue;
+        }
+        float density = edgeCounts[cell] / (float) sampleCounts[cell];
+        if (density >= MIN_TEXT_EDGE_DENSITY && density <= MAX_TEXT_EDGE_DENSITY) {
+          textCells++;
+          minCellX = Math.min(minCellX, cellX);
+          minCellY = Math.min(minCellY, cellY);
+          maxCellX = Math.max(maxCellX, cellX);
+          maxCellY = Math.max(maxCellY, cellY);
+        }
+      }
+    }
+
+    if (textCells == 0) {
+      textRegion.set(0, 0, width, height);
+      return 0f;
+    }
+
+    // Grow the region by one cell on each side, so that characters straddling the edge of a
+    // text-like cell are not cut off.
+    int left = Math.max(0, minCellX - 1) * width / CELLS_X;
+    int top = Math.max(0, minCellY - 1) * height / CELLS_Y;
+    int right = Math.min(CELLS_X, maxCellX + 2) * width / CELLS_X;
+    int bottom = Math.min(CELLS_Y, maxCellY + 2) * height / CELLS_Y;
+    if (source.isReversedHorizontally()) {
+      int mirroredLeft = width - right;
+      right = width - left;
+      left = mirroredLeft;
+    }
+    textRegion.set(left, top, right, bottom);
+    return Math.min(1f, textCells / (float) TEXT_CELLS_FOR_CERTAINTY);
+  }
+
+  /**
+   * @return The part of the crop most likely to hold text, in the crop's own coordinates, as found
+   *         by the last call to {@link #detect}. Reused between calls.
+   */
+  Rect getTextRegion() {
+    return textRegion;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+/**
+ * Decides, from the likelihood estimated by {@link TextDetector}, which continuous-mode frames are
+ * skipped for showing no text.
+ *
+ * The detector's thresholds are a heuristic, and small or low-contrast text can fall below them.
+ * So that such a miss cannot keep recognition from ever running, a frame is let through after a
+ * run of rejected frames. Shared by all decode threads.
+ */
+final class TextFilter {
+
+  /** Flag to skip recognition of frames in which no text is detected. */
+  static final boolean ENABLED = true;
+
+  /** Likelihood of text being present below which a frame is not recognized. */
+  private static final float MIN_TEXT_PROBABILITY = 0.5f;
+
+  /** Number of frames rejected in a row after which the next frame is recognized anyway. */
+  private static final int REJECTED_FRAMES_BEFORE_PASS = 5;
+
+  private int consecutiveRejectedFrames;
+  private long acceptedCount;
+  private long rejectedCount;
+  private long passedCount;
+
+  /**
+   * @param textProbability Likelihood that the frame contains text, from TextDetector.detect()
+   * @return True if the frame should be recognized
+   */
+  synchronized boolean accept(float textProbability) {
+    if (textProbability >= MIN_TEXT_PROBABILITY) {
+      consecutiveRejectedFrames = 0;
+      acceptedCount++;
+      return true;
+    }
+    if (consecutiveRejectedFrames >= REJECTED_FRAMES_BEFORE_PASS) {
+      consecutiveRejectedFrames = 0;
+      passedCount++;
+      return true;
+    }
+    consecutiveRejectedFrames++;
+    rejectedCount++;
+    return false;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "accepted: " + acceptedCount + " rejected: " + rejectedCount
+        + " let through after rejections: " + passedCount;
+  }
+}
@@ -16,8 +16,6 @@
  */
 package edu.sfsu.cs.orange.ocr;
 
-import java.util.List;
-
 import edu.sfsu.cs.orange.ocr.R;
 import edu.sfsu.cs.orange.ocr.camera.CameraManager;
 
@@ -73,14 +71,11 @@ public final class ViewfinderView extends View {
   private final int cornerColor;
   private OcrResultText resultText;
   private String[] words;
-  private List<Rect> regionBoundingBoxes;
-  private List<Rect> textlineBoundingBoxes;
-  private List<Rect> stripBoundingBoxes;
-  private List<Rect> wordBoundingBoxes;
-  private List<Rect> characterBoundingBoxes;
-  //  Rect bounds;
+  private BoundingBoxes boundingBoxes;
+  private Rect bounds;
   private Rect previewFrame;
   private Rect rect;
+  private int rotation;
 
   // This constructor is used when the class is built from an XML resource.
   public ViewfinderView(Context context, AttributeSet attrs) {
@@ -93,7 +88,7 @@ public final class ViewfinderView extends View {
     frameColor = resources.getColor(R.color.viewfinder_frame);
     cornerColor = resources.getColor(R.color.viewfinder_corners);
 
-    //    bounds = new Rect();
+    bounds = new Rect();
     previewFrame = new Rect();
     rect = new Rect();
   }
@@ -123,22 +118,30 @@ public final class ViewfinderView extends View {
     if (resultText != null) {
 
       // Only draw text/bounding boxes on viewfinder if it hasn't been resized since the OCR was requested.
+      // The recognized image may have been turned a quarter turn from the preview crop.
       Point bitmapSize = resultText.getBitmapDimensions();
+      rotation = resultText.getRotation();
+      boolean isQuarterTurn = rotation == 90 || rotation == 270;
+      int unrotatedWidth = isQuarterTurn ? bitmapSize.y : bitmapSize.x;
+      int unrotatedHeight = isQuarterTurn ? bitmapSize.x : bitmapSize.y;
       previewFrame = cameraManager.getFramingRectInPreview();
-      if (bitmapSize.x == previewFrame.width() && bitmapSize.y == previewFrame.height()) {
+      if (unrotatedWidth == previewFrame.width() && unrotatedHeight == previewFrame.height()) {
 
 
         float scaleX = frame.width() / (float) previewFrame.width();
         float scaleY = frame.height() / (float) previewFrame.height();
 
+        // Boxes are copied one at a time into the reused rect rather than read from a list of
+        // Rects, so that drawing does not allocate.
+        boundingBoxes = resultText.getBoundingBoxes();
+
         if (DRAW_REGION_BOXES) {
-          regionBoundingBoxes = resultText.getRegionBoundingBoxes();
-          for (int i = 0; i < regionBoundingBoxes.size(); i++) {
+          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.REGION); i++) {
             paint.setAlpha(0xA0);
             paint.setColor(Color.MAGENTA);
             paint.setStyle(Style.STROKE);
             paint.setStrokeWidth(1);
-            rect = regionBoundingBoxes.get(i);
+            getBoxInPreview(BoundingBoxes.REGION, i, rect);
             canvas.drawRect(frame.left + rect.left * scaleX,
                 frame.top + rect.top * scaleY, 
                 frame.left + rect.right * scaleX, 
@@ -148,13 +151,12 @@ public final class ViewfinderView extends View {
 
         if (DRAW_TEXTLINE_BOXES) {
           // Draw each textline
-          textlineBoundingBoxes = resultText.getTextlineBoundingBoxes();
           paint.setAlpha(0xA0);
           paint.setColor(Color.RED);
           paint.setStyle(Style.STROKE);
           paint.setStrokeWidth(1);
-          for (int i = 0; i < textlineBoundingBoxes.size(); i++) {
-            rect = textlineBoundingBoxes.get(i);
+          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.TEXTLINE); i++) {
+            getBoxInPreview(BoundingBoxes.TEXTLINE, i, rect);
             canvas.drawRect(frame.left + rect.left * scaleX,
                 frame.top + rect.top * scaleY, 
                 frame.left + rect.right * scaleX, 
@@ -163,13 +165,12 @@ public final class ViewfinderView extends View {
         }
 
         if (DRAW_STRIP_BOXES) {
-          stripBoundingBoxes = resultText.getStripBoundingBoxes();
           paint.setAlpha(0xFF);
           paint.setColor(Color.YELLOW);
           paint.setStyle(Style.STROKE);
           paint.setStrokeWidth(1);
-          for (int i = 0; i < stripBoundingBoxes.size(); i++) {
-            rect = stripBoundingBoxes.get(i);
+          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.STRIP); i++) {
+            getBoxInPreview(BoundingBoxes.STRIP, i, rect);
             canvas.drawRect(frame.left + rect.left * scaleX,
                 frame.top + rect.top * scaleY, 
                 frame.left + rect.right * scaleX, 
@@ -177,24 +178,14 @@ public final class ViewfinderView extends View {
           }        	
         }
 
-        if (DRAW_WORD_BOXES || DRAW_WORD_TEXT) {
-          // Split the text into words
-          wordBoundingBoxes = resultText.getWordBoundingBoxes();
-          //      for (String w : words) {
-          //        Log.e("ViewfinderView", "word: " + w);
-          //      }
-          //Log.d("ViewfinderView", "There are " + words.length + " words in the string array.");
-          //Log.d("ViewfinderView", "There are " + wordBoundingBoxes.size() + " words with bounding boxes.");
-        }
-
         if (DRAW_WORD_BOXES) {
           paint.setAlpha(0xFF);
           paint.setColor(0xFF00CCFF);
           paint.setStyle(Style.STROKE);
           paint.setStrokeWidth(1);
-          for (int i = 0; i < wordBoundingBoxes.size(); i++) {
+          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.WORD); i++) {
             // Draw a bounding box around the word
-            rect = wordBoundingBoxes.get(i);
+            getBoxInPreview(BoundingBoxes.WORD, i, rect);
             canvas.drawRect(
                 frame.left + rect.left * scaleX,
                 frame.top + rect.top * scaleY, 
@@ -203,10 +194,11 @@ public final class ViewfinderView extends View {
           }
         }  
 
-        if (DRAW_WORD_TEXT) { 
+        // Words are drawn horizontally, so they would not fit boxes recognized from a turned image
+        if (DRAW_WORD_TEXT && rotation == 0) { 
           words = resultText.getText().replace("\n"," ").split(" ");
           int[] wordConfidences = resultText.getWordConfidences();          
-          for (int i = 0; i < wordBoundingBoxes.size(); i++) {
+          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.WORD); i++) {
             boolean isWordBlank = true;
             try {
               if (!words[i].equals("")) {
@@ -219,7 +211,7 @@ public final class ViewfinderView extends View {
             // Only draw if word has characters
             if (!isWordBlank) {
               // Draw a white background around each word
-              rect = wordBoundingBoxes.get(i);
+              getBoxInPreview(BoundingBoxes.WORD, i, rect);
               paint.setColor(Color.WHITE);
               paint.setStyle(Style.FILL);
               if (DRAW_TRANSPARENT_WORD_BACKGROUNDS) {
@@ -243,7 +235,6 @@ public final class ViewfinderView extends View {
               paint.setTextSize(100);
               paint.setTextScaleX(1.0f);
               // ask the paint for the bounding rect if it were to draw this text
-              Rect bounds = new Rect();
               paint.getTextBounds(words[i], 0, words[i].length(), bounds);
               // get the height that would have been produced
               int h = bounds.bottom - bounds.top;
@@ -271,18 +262,14 @@ public final class ViewfinderView extends View {
           }
         }  
 
-//        if (DRAW_CHARACTER_BOXES || DRAW_CHARACTER_TEXT) {
-//          characterBoundingBoxes = resultText.getCharacterBoundingBoxes();
-//        }
-//
 //        if (DRAW_CHARACTER_BOXES) {
 //          // Draw bounding boxes around each character
 //          paint.setAlpha(0xA0);
 //          paint.setColor(0xFF00FF00);
 //          paint.setStyle(Style.STROKE);
 //          paint.setStrokeWidth(1);
-//          for (int c = 0; c < characterBoundingBoxes.size(); c++) {
-//            Rect characterRect = characterBoundingBoxes.get(c);
+//          for (int c = 0; c < boundingBoxes.size(BoundingBoxes.CHARACTER); c++) {
+//            Rect characterRect = getBoxInPreview(BoundingBoxes.CHARACTER, c, rect);
 //            canvas.drawRect(frame.left + characterRect.left * scaleX,
 //                frame.top + characterRect.top * scaleY, 
 //                frame.left + characterRect.right * scaleX, 
@@ -292,8 +279,8 @@ public final class ViewfinderView extends View {
 //
 //        if (DRAW_CHARACTER_TEXT) {
 //          // Draw letters individually
-//          for (int i = 0; i < characterBoundingBoxes.size(); i++) {
-//            Rect r = characterBoundingBoxes.get(i);
+//          for (int i = 0; i < boundingBoxes.size(BoundingBoxes.CHARACTER); i++) {
+//            Rect r = getBoxInPreview(BoundingBoxes.CHARACTER, i, rect);
 //
 //            // Draw a white background for every letter
 //            int meanConfidence = resultText.getMeanConfidence();
@@ -322,7 +309,6 @@ public final class ViewfinderView extends View {
 //                paint.setTextScaleX(1.0f);
 //
 //                // ask the paint for the bounding rect if it were to draw this text
-//                Rect bounds = new Rect();
 //                paint.getTextBounds(letter, 0, letter.length(), bounds);
 //
 //                // get the height that would have been produced
@@ -373,10 +359,52 @@ public final class ViewfinderView extends View {
     //postInvalidateDelayed(ANIMATION_DELAY, frame.left, frame.top, frame.right, frame.bottom);
   }
 
+  /**
+   * @return Mask of the BoundingBoxes levels that onDraw() draws over the viewfinder, according to
+   *         the DRAW_* flags
+   */
+  static int getDrawnLayers() {
+    int layers = 0;
+    if (DRAW_REGION_BOXES) {
+      layers |= BoundingBoxes.maskOf(BoundingBoxes.REGION);
+    }
+    if (DRAW_TEXTLINE_BOXES) {
+      layers |= BoundingBoxes.maskOf(BoundingBoxes.TEXTLINE);
+    }
+    if (DRAW_STRIP_BOXES) {
+      layers |= BoundingBoxes.maskOf(BoundingBoxes.STRIP);
+    }
+    if (DRAW_WORD_BOXES || DRAW_WORD_TEXT) {
+      layers |= BoundingBoxes.maskOf(BoundingBoxes.WORD);
+    }
+    if (DRAW_CHARACTER_BOXES || DRAW_CHARACTER_TEXT) {
+      layers |= BoundingBoxes.maskOf(BoundingBoxes.CHARACTER);
+    }
+    return layers;
+  }
+
   public void drawViewfinder() {
     invalidate();
   }
 
+  /**
+   * Reads a bounding box of the current result, turned back from the coordinates of the recognized
+   * image to those of the unrotated preview crop, which is how the framing rectangle is shown.
+   *
+   * @param level One of the BoundingBoxes level constants
+   * @param index Index of the box within its level
+   * @param rect Rect to store the box in
+   * @return rect
+   */
+  private Rect getBoxInPreview(int level, int index, Rect rect) {
+    boundingBoxes.getBox(level, index, rect);
+    if (rotation != 0) {
+      Point bitmapSize = resultText.getBitmapDimensions();
+      PlanarYUVLuminanceSource.rotateRect(rect, bitmapSize.x, bitmapSize.y, 360 - rotation, rect);
+    }
+    return rect;
+  }
+
   /**
    * Adds the given OCR results for drawing to the view.
    * 
@@ -34,6 +34,7 @@ public final class AutoFocusManager implements Camera.AutoFocusCallback {
   private static final String TAG = AutoFocusManager.class.getSimpleName();
 
   private static final long AUTO_FOCUS_INTERVAL_MS = 3500L;
+  private static final long MIN_REFOCUS_INTERVAL_MS = 1000L;
   private static final Collection<String> FOCUS_MODES_CALLING_AF;
   static {
     FOCUS_MODES_CALLING_AF = new ArrayList<String>(2);
@@ -43,10 +44,13 @@ public final class AutoFocusManager implements Camera.AutoFocusCallback {
 
   private boolean active;
   private boolean manual;
+  private boolean focusing;
+  private long lastFocusTime;
   private final boolean useAutoFocus;
   private final Camera camera;
   private final Timer timer;
   private TimerTask outstandingTask;
+  private TimerTask periodicTask;
 
   AutoFocusManager(Context context, Camera camera) {
     this.camera = camera;
@@ -63,14 +67,16 @@ public final class AutoFocusManager implements Camera.AutoFocusCallback {
 
   @Override
   public synchronized void onAutoFocus(boolean success, Camera theCamera) {
+    focusing = false;
+    lastFocusTime = System.currentTimeMillis();
     if (active && !manual) {
-      outstandingTask = new TimerTask() {
+      periodicTask = new TimerTask() {
         @Override
         public void run() {
           checkAndStart();
         }
       };
-      timer.schedule(outstandingTask, AUTO_FOCUS_INTERVAL_MS);
+      timer.schedule(periodicTask, AUTO_FOCUS_INTERVAL_MS);
     }
     manual = false;
   }
@@ -84,13 +90,33 @@ public final class AutoFocusManager implements Camera.AutoFocusCallback {
 
   synchronized void start() {
 	  try {
+		  focusing = true;
 		  camera.autoFocus(this);
 	  } catch (RuntimeException re) {
 		  // Have heard RuntimeException reported in Android 4.0.x+; continue?
 		  Log.w(TAG, "Unexpected exception while focusing", re);
+		  focusing = false;
 	  }
   }
 
+  /**
+   * Performs an auto-focus right away, because recent preview frames were blurry. Does nothing if
+   * auto-focus is stopped, a manual focus is in progress, or a focus is already in progress or has
+   * only just finished. A pending manual focus still runs.
+   */
+  synchronized void refocus() {
+    if (!useAutoFocus || !active || manual || focusing
+        || System.currentTimeMillis() - lastFocusTime < MIN_REFOCUS_INTERVAL_MS) {
+      return;
+    }
+    if (periodicTask != null) {
+      periodicTask.cancel();
+      periodicTask = null;
+    }
+    Log.d(TAG, "Refocusing after blurry frames");
+    start();
+  }
+
   /**
    * Performs a manual auto-focus after the given delay.
    * @param delay Time to wait before auto-focusing, in milliseconds
@@ -114,6 +140,10 @@ public final class AutoFocusManager implements Camera.AutoFocusCallback {
       outstandingTask.cancel();
       outstandingTask = null;
     }
+    if (periodicTask != null) {
+      periodicTask.cancel();
+      periodicTask = null;
+    }
     active = false;
     manual = false;
   }
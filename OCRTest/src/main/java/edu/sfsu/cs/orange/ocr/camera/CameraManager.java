@@ -19,12 +19,14 @@ package edu.sfsu.cs.orange.ocr.camera;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import android.view.OrientationEventListener;
 import android.view.SurfaceHolder;
 import edu.sfsu.cs.orange.ocr.PlanarYUVLuminanceSource;
 import edu.sfsu.cs.orange.ocr.PreferencesActivity;
@@ -46,6 +48,12 @@ public final class CameraManager {
   private static final int MIN_FRAME_HEIGHT = 20; // originally 240
   private static final int MAX_FRAME_WIDTH = 800; // originally 480
   private static final int MAX_FRAME_HEIGHT = 600; // originally 360
+
+  /** Flag to deliver preview frames into a recycled ring of buffers instead of one-shot callbacks. */
+  private static final boolean USE_PREVIEW_BUFFER_RING = true;
+
+  /** Number of preview buffers: one being filled by the camera, one being decoded, and a spare. */
+  private static final int PREVIEW_BUFFER_COUNT = 3;
   
   private final Context context;
   private final CameraConfigurationManager configManager;
@@ -63,11 +71,24 @@ public final class CameraManager {
    * clear the handler so it will only receive one message.
    */
   private final PreviewCallback previewCallback;
+  private FrameBufferPool bufferPool;
+  private final FrameScheduler frameScheduler;
+  /** Tracks how the device is being held, since the activity itself is locked to landscape. */
+  private final OrientationEventListener orientationListener;
+  private int cameraOrientation;
+  private int deviceOrientation = OrientationEventListener.ORIENTATION_UNKNOWN;
 
   public CameraManager(Context context) {
     this.context = context;
     this.configManager = new CameraConfigurationManager(context);
     previewCallback = new PreviewCallback(configManager);
+    frameScheduler = new FrameScheduler(this);
+    orientationListener = new OrientationEventListener(context) {
+      @Override
+      public void onOrientationChanged(int orientation) {
+        setDeviceOrientation(orientation);
+      }
+    };
   }
 
   /**
@@ -84,6 +105,7 @@ public final class CameraManager {
         throw new IOException();
       }
       camera = theCamera;
+      cameraOrientation = getBackCameraOrientation();
     }
     camera.setPreviewDisplay(holder);
     if (!initialized) {
@@ -101,6 +123,13 @@ public final class CameraManager {
     reverseImage = prefs.getBoolean(PreferencesActivity.KEY_REVERSE_IMAGE, false);
   }
 
+  /**
+   * @return Whether the camera driver is open
+   */
+  public synchronized boolean isOpen() {
+    return camera != null;
+  }
+
   /**
    * Closes the camera driver if still in use.
    */
@@ -122,9 +151,15 @@ public final class CameraManager {
   public synchronized void startPreview() {
     Camera theCamera = camera;
     if (theCamera != null && !previewing) {
+      if (USE_PREVIEW_BUFFER_RING) {
+        startBufferRing(theCamera);
+      }
       theCamera.startPreview();
       previewing = true;
       autoFocusManager = new AutoFocusManager(context, camera);
+      if (orientationListener.canDetectOrientation()) {
+        orientationListener.enable();
+      }
     }
   }
 
@@ -137,16 +172,64 @@ public final class CameraManager {
     	autoFocusManager = null;
     }
   	if (camera != null && previewing) {
+      orientationListener.disable();
+      stopContinuousDecode();
       camera.stopPreview();
+      if (USE_PREVIEW_BUFFER_RING) {
+        camera.setPreviewCallbackWithBuffer(null);
+        previewCallback.setBufferPool(null);
+        if (bufferPool != null) {
+          // The camera has dropped the buffers queued with it, so stop counting them as in use.
+          bufferPool.reset();
+          Log.d(TAG, "Preview buffers: " + bufferPool);
+        }
+      }
       previewCallback.setHandler(null, 0);
       previewing = false;
     }
   }
 
+  /**
+   * Sizes the pool of preview buffers from the camera resolution, queues the free buffers with the
+   * camera, and registers the preview callback to receive every frame in one of those buffers.
+   */
+  private void startBufferRing(Camera theCamera) {
+    Point cameraResolution = configManager.getCameraResolution();
+    int bufferSize = cameraResolution.x * cameraResolution.y
+        * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    if (bufferPool == null || bufferPool.getBufferSize() != bufferSize) {
+      bufferPool = new FrameBufferPool(PREVIEW_BUFFER_COUNT, bufferSize);
+    }
+    byte[] buffer;
+    while ((buffer = bufferPool.acquire()) != null) {
+      theCamera.addCallbackBuffer(buffer);
+    }
+    previewCallback.setBufferPool(bufferPool);
+    theCamera.setPreviewCallbackWithBuffer(previewCallback);
+  }
+
+  /**
+   * Hands a preview frame back for reuse once the decoder is done reading it. Must be called for
+   * every frame delivered by {@link #requestOcrDecode}; the frame data must not be touched
+   * afterwards.
+   *
+   * @param data The frame data that was delivered in message.obj
+   */
+  public synchronized void releaseFrame(byte[] data) {
+    if (!USE_PREVIEW_BUFFER_RING || bufferPool == null) {
+      return;
+    }
+    if (camera != null && previewing) {
+      PreviewCallback.recycleBuffer(bufferPool, data, camera);
+    } else {
+      bufferPool.release(data);
+    }
+  }
+
   /**
    * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
    * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-   * respectively.
+   * respectively. The data must be handed back with {@link #releaseFrame} when no longer needed.
    *
    * @param handler The handler to send the message to.
    * @param message The what field of the message to be sent.
@@ -155,10 +238,93 @@ public final class CameraManager {
     Camera theCamera = camera;
     if (theCamera != null && previewing) {
       previewCallback.setHandler(handler, message);
-      theCamera.setOneShotPreviewCallback(previewCallback);
+      if (!USE_PREVIEW_BUFFER_RING) {
+        theCamera.setOneShotPreviewCallback(previewCallback);
+      }
     }
   }
   
+  /**
+   * Starts feeding every preview frame to the frame scheduler, which keeps only the newest one and
+   * sends it to whichever of the given decode workers is idle. See {@link FrameScheduler}.
+   *
+   * @param handlers The decode workers to send frames to, one per OCR engine.
+   * @param message The what field of the message to be sent.
+   * @param policy How to choose among idle workers.
+   */
+  public synchronized void startContinuousDecode(Handler[] handlers, int message,
+      FrameScheduler.DispatchPolicy policy) {
+    Camera theCamera = camera;
+    if (theCamera != null && previewing) {
+      frameScheduler.start(handlers, message, policy);
+      previewCallback.setFrameScheduler(frameScheduler);
+      if (!USE_PREVIEW_BUFFER_RING) {
+        theCamera.setPreviewCallback(previewCallback);
+      }
+    }
+  }
+
+  /**
+   * Stops feeding preview frames to the frame scheduler.
+   */
+  public synchronized void stopContinuousDecode() {
+    previewCallback.setFrameScheduler(null);
+    if (!USE_PREVIEW_BUFFER_RING && camera != null) {
+      camera.setPreviewCallback(null);
+    }
+    frameScheduler.stop();
+    Log.d(TAG, "Continuous decode: " + frameScheduler);
+  }
+
+  public FrameScheduler getFrameScheduler() {
+    return frameScheduler;
+  }
+
+  /**
+   * Returns how far the cropped preview frame must be rotated for text that is upright in front of
+   * the camera to be upright in the image. This is zero while the device is held in the landscape
+   * orientation the activity is locked to, and changes as the device is turned, so that
+   * recognition can rotate the frame itself instead of relying on orientation detection in
+   * Tesseract.
+   *
+   * @return Counter-clockwise rotation in degrees: 0, 90, 180 or 270
+   */
+  public synchronized int getFrameRotation() {
+    if (deviceOrientation == OrientationEventListener.ORIENTATION_UNKNOWN) {
+      return 0;
+    }
+    // The image is upright on screen, and so upright in the world, when the device is held in the
+    // landscape orientation matching the camera sensor. This is how far clockwise the device has
+    // been turned away from that.
+    int landscapeOrientation = (360 - cameraOrientation) % 360;
+    int clockwise = (deviceOrientation - landscapeOrientation + 360) % 360;
+    return (360 - clockwise) % 360;
+  }
+
+  private synchronized void setDeviceOrientation(int orientation) {
+    if (orientation == OrientationEventListener.ORIENTATION_UNKNOWN) {
+      // Lying flat, so keep the last known orientation.
+      return;
+    }
+    // Round to the nearest quarter turn.
+    deviceOrientation = ((orientation + 45) / 90 * 90) % 360;
+  }
+
+  /**
+   * @return Clockwise angle the back camera's image must be rotated to be upright in the device's
+   *         natural orientation
+   */
+  private static int getBackCameraOrientation() {
+    Camera.CameraInfo info = new Camera.CameraInfo();
+    for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+      Camera.getCameraInfo(i, info);
+      if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+        return info.orientation;
+      }
+    }
+    return 0;
+  }
+
   /**
    * Asks the camera hardware to perform an autofocus.
    * @param delay Time delay to send with the request
@@ -167,6 +333,16 @@ public final class CameraManager {
   	autoFocusManager.start(delay);
   }
   
+  /**
+   * Tells the camera that recent preview frames were out of focus, so that it can refocus now
+   * rather than wait for the next periodic auto-focus.
+   */
+  public synchronized void reportBlurryFrames() {
+    if (autoFocusManager != null) {
+      autoFocusManager.refocus();
+    }
+  }
+  
   /**
    * Calculates the framing rect which the UI should draw to show the user where to place the
    * barcode. This target helps with alignment as well as forces the user to hold the device
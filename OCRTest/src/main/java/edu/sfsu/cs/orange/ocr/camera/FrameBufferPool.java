@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr.camera;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A small, fixed-capacity pool of preview frame buffers, for use with
+ * Camera.setPreviewCallbackWithBuffer(). Buffers are handed to the camera, delivered back through
+ * the preview callback, passed on for decoding, and returned here once the decode is done with
+ * them, so that steady-state preview does not allocate a new byte[] for every frame.
+ *
+ * This class has no Android dependencies, so it can be exercised on a plain JVM.
+ */
+public final class FrameBufferPool {
+
+  private final int capacity;
+  private final int bufferSize;
+  private final ArrayDeque<byte[]> freeBuffers;
+  // Buffers handed out since the last reset, compared by identity rather than by content
+  private final Set<byte[]> buffersInFlight =
+      Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+  private int allocated;
+  private long acquisitions;
+  private long reuses;
+  private long drops;
+  private long rejectedReleases;
+
+  /**
+   * @param capacity Maximum number of buffers this pool will ever allocate at one time
+   * @param bufferSize Size of each buffer, in bytes
+   */
+  public FrameBufferPool(int capacity, int bufferSize) {
+    if (capacity <= 0 || bufferSize <= 0) {
+      throw new IllegalArgumentException("Capacity and buffer size must be positive.");
+    }
+    this.capacity = capacity;
+    this.bufferSize = bufferSize;
+    this.freeBuffers = new ArrayDeque<byte[]>(capacity);
+  }
+
+  /**
+   * Takes a buffer out of the pool, allocating a new one only if the pool has not yet reached its
+   * capacity.
+   *
+   * @return A buffer of {@link #getBufferSize()} bytes, or null if all buffers are in use
+   */
+  public synchronized byte[] acquire() {
+    byte[] buffer = freeBuffers.poll();
+    if (buffer != null) {
+      reuses++;
+    } else if (allocated < capacity) {
+      buffer = new byte[bufferSize];
+      allocated++;
+    } else {
+      return null;
+    }
+    acquisitions++;
+    buffersInFlight.add(buffer);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers that were not handed out by this pool since its last reset
+   * (for example, left over from before a preview size change or a camera restart) are discarded.
+   *
+   * @param buffer The buffer to return
+   */
+  public synchronized void release(byte[] buffer) {
+    if (buffer == null || !buffersInFlight.remove(buffer)) {
+      rejectedReleases++;
+      return;
+    }
+    freeBuffers.offer(buffer);
+  }
+
+  /** Records a frame that was delivered but not consumed by anyone. */
+  public synchronized void recordDrop() {
+    drops++;
+  }
+
+  /**
+   * Forgets about all buffers that are currently out of the pool. Called when the camera has been
+   * stopped and will never hand its queued buffers back. Any of those buffers that is released later
+   * is discarded, and replacements are allocated on demand.
+   */
+  public synchronized void reset() {
+    allocated -= buffersInFlight.size();
+    buffersInFlight.clear();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /** @return Number of buffers currently held by the camera or by a consumer */
+  public synchronized int getBuffersInFlight() {
+    return buffersInFlight.size();
+  }
+
+  /** @return Fraction of acquisitions that were satisfied by recycling an existing buffer */
+  public synchronized float getReuseRate() {
+    return acquisitions == 0 ? 0f : reuses / (float) acquisitions;
+  }
+
+  public synchronized long getDropCount() {
+    return drops;
+  }
+
+  public synchronized long getRejectedReleaseCount() {
+    return rejectedReleases;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "in flight: " + buffersInFlight.size() + "/" + capacity + " reuse rate: " + getReuseRate()
+        + " drops: " + drops + " rejected: " + rejectedReleases;
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import android.os.Handler;
+import android.os.Message;
+
+/**
+ * Sits between the preview callback and the decoders during continuous recognition. Every preview
+ * frame is offered here, but only the newest one is kept, in a single-slot mailbox. Whenever a
+ * decode worker is idle it is sent that frame; any frame that is replaced before a worker gets to it
+ * is recycled straight away.
+ *
+ * With more than one worker, results can finish out of order. Workers hand their result messages
+ * back here, and they are released to their target in the order the frames were captured.
+ *
+ * This keeps the camera capturing while Tesseract runs, and bounds the age of any decoded frame to
+ * one recognition pass plus one frame interval.
+ */
+public final class FrameScheduler {
+
+  /** Strategy for choosing among idle decode workers. */
+  public enum DispatchPolicy {
+    /** Take turns, starting after the worker that was used last. */
+    ROUND_ROBIN,
+    /** Prefer the worker with the lowest recent decode time. */
+    LEAST_LOADED
+  }
+
+  private static final class Worker {
+    final Handler handler;
+    boolean busy;
+    long averageDecodeTime;
+
+    Worker(Handler handler) {
+      this.handler = handler;
+    }
+  }
+
+  private final CameraManager cameraManager;
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private final TreeMap<Long, Message> finishedResults = new TreeMap<Long, Message>();
+  private DispatchPolicy dispatchPolicy = DispatchPolicy.LEAST_LOADED;
+  private int decodeMessage;
+  private int lastWorker = -1;
+  private boolean active;
+  private PreviewFrame pendingFrame;
+  private long nextSequence;
+  private long nextSequenceToRelease;
+  private long startTime;
+
+  private long offeredCount;
+  private long supersededCount;
+  private long droppedCount;
+  private long decodedCount;
+
+  FrameScheduler(CameraManager cameraManager) {
+    this.cameraManager = cameraManager;
+  }
+
+  /**
+   * Starts delivering frames to the given decode workers. Each worker receives a message whose obj
+   * field is a {@link PreviewFrame}, and must call {@link #decodeFinished} once it is done with it.
+   *
+   * @param handlers The decode workers, one per OCR engine
+   * @param message The what field of the message to be sent
+   * @param policy How to choose among idle workers
+   */
+  synchronized void start(Handler[] handlers, int message, DispatchPolicy policy) {
+    if (!hasSameWorkers(handlers)) {
+      // New decode threads never saw any earlier frame, so don't wait for them to finish one.
+      workers.clear();
+      for (Handler handler : handlers) {
+        workers.add(new Worker(handler));
+      }
+      finishedResults.clear();
+      nextSequenceToRelease = nextSequence;
+      lastWorker = -1;
+    }
+    decodeMessage = message;
+    dispatchPolicy = policy;
+    if (!active) {
+      startTime = System.currentTimeMillis();
+    }
+    active = true;
+    dispatchIfIdle();
+  }
+
+  /** Stops delivering frames, and recycles the frame waiting in the mailbox, if any. */
+  void stop() {
+    PreviewFrame discarded;
+    synchronized (this) {
+      active = false;
+      discarded = pendingFrame;
+      pendingFrame = null;
+      if (discarded != null) {
+        droppedCount++;
+      }
+    }
+    if (discarded != null) {
+      cameraManager.releaseFrame(discarded.getData());
+    }
+  }
+
+  /**
+   * Places a newly captured frame in the mailbox, replacing any frame that no worker has picked up
+   * yet.
+   */
+  void offerFrame(byte[] data, int width, int height) {
+    byte[] discarded = null;
+    synchronized (this) {
+      offeredCount++;
+      if (!active) {
+        droppedCount++;
+        discarded = data;
+      } else {
+        if (pendingFrame != null) {
+          supersededCount++;
+          discarded = pendingFrame.getData();
+        }
+        pendingFrame = new PreviewFrame(data, width, height, System.currentTimeMillis());
+        dispatchIfIdle();
+      }
+    }
+    if (discarded != null) {
+      cameraManager.releaseFrame(discarded);
+    }
+  }
+
+  /**
+   * Tells the scheduler a worker is done with a frame, so the worker can be sent the next one. The
+   * result is released once all earlier frames have finished as well. Must be called exactly once
+   * for every frame delivered to a worker.
+   *
+   * @param handler The worker that decoded the frame
+   * @param frame The frame it was sent
+   * @param result Message to send to its target in frame order, or null if there is nothing to send
+   * @param decodeTime Time the worker spent on the frame, in milliseconds
+   */
+  public synchronized void decodeFinished(Handler handler, PreviewFrame frame, Message result,
+      long decodeTime) {
+    Worker worker = findWorker(handler);
+    if (worker == null) {
+      // The worker belongs to a decode thread from before the last restart.
+      if (result != null) {
+        result.sendToTarget();
+      }
+      return;
+    }
+    worker.busy = false;
+    worker.averageDecodeTime = worker.averageDecodeTime == 0 ? decodeTime
+        : (3 * worker.averageDecodeTime + decodeTime) / 4;
+    finishedResults.put(frame.getSequence(), result);
+    while (!finishedResults.isEmpty() && finishedResults.firstKey() == nextSequenceToRelease) {
+      Message message = finishedResults.remove(finishedResults.firstKey());
+      if (message != null) {
+        message.sendToTarget();
+      }
+      nextSequenceToRelease++;
+    }
+    dispatchIfIdle();
+  }
+
+  private void dispatchIfIdle() {
+    if (!active || pendingFrame == null) {
+      return;
+    }
+    int index = chooseIdleWorker();
+    if (index < 0) {
+      return;
+    }
+    Worker worker = workers.get(index);
+    worker.busy = true;
+    lastWorker = index;
+    PreviewFrame frame = pendingFrame;
+    pendingFrame = null;
+    frame.setSequence(nextSequence++);
+    decodedCount++;
+    Message.obtain(worker.handler, decodeMessage, frame).sendToTarget();
+  }
+
+  private int chooseIdleWorker() {
+    int size = workers.size();
+    int chosen = -1;
+    for (int i = 1; i <= size; i++) {
+      int index = (lastWorker + i) % size;
+      Worker worker = workers.get(index);
+      if (worker.busy) {
+        continue;
+      }
+      if (dispatchPolicy == DispatchPolicy.ROUND_ROBIN) {
+        return index;
+      }
+      if (chosen < 0 || worker.averageDecodeTime < workers.get(chosen).averageDecodeTime) {
+        chosen = index;
+      }
+    }
+    return chosen;
+  }
+
+  private boolean hasSameWorkers(Handler[] handlers) {
+    if (handlers.length != workers.size()) {
+      return false;
+    }
+    for (int i = 0; i < handlers.length; i++) {
+      if (workers.get(i).handler != handlers[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Worker findWorker(Handler handler) {
+    for (Worker worker : workers) {
+      if (worker.handler == handler) {
+        return worker;
+      }
+    }
+    return null;
+  }
+
+  public synchronized long getOfferedCount() {
+    return offeredCount;
+  }
+
+  /** @return Number of frames replaced in the mailbox by a newer frame before being decoded */
+  public synchronized long getSupersededCount() {
+    return supersededCount;
+  }
+
+  /** @return Number of frames discarded because the scheduler was stopped */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  public synchronized long getDecodedCount() {
+    return decodedCount;
+  }
+
+  /** @return Frames sent to the decode workers per second since continuous decoding started */
+  public synchronized float getDecodeRate() {
+    long elapsed = System.currentTimeMillis() - startTime;
+    return elapsed <= 0 ? 0f : decodedCount * 1000f / elapsed;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "workers: " + workers.size() + " offered: " + offeredCount + " decoded: " + decodedCount
+        + " superseded: " + supersededCount + " dropped: " + droppedCount + " decode rate: "
+        + getDecodeRate() + " fps";
+  }
+}
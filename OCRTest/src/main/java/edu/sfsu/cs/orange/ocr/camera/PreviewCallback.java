@@ -35,6 +35,8 @@ final class PreviewCallback implements Camera.PreviewCallback {
   private final CameraConfigurationManager configManager;
   private Handler previewHandler;
   private int previewMessage;
+  private FrameBufferPool bufferPool;
+  private FrameScheduler frameScheduler;
 
   PreviewCallback(CameraConfigurationManager configManager) {
     this.configManager = configManager;
@@ -45,6 +47,31 @@ final class PreviewCallback implements Camera.PreviewCallback {
     this.previewMessage = previewMessage;
   }
 
+  /**
+   * Sets the scheduler that receives every frame not claimed by a one-shot request, for continuous
+   * recognition.
+   */
+  void setFrameScheduler(FrameScheduler frameScheduler) {
+    this.frameScheduler = frameScheduler;
+  }
+
+  /**
+   * Sets the pool that owns the buffers the camera is filling. When a pool is set, frames that
+   * nobody asked for are handed straight back to the camera instead of being discarded.
+   */
+  void setBufferPool(FrameBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  /** Returns a delivered frame to the pool, and queues a free buffer with the camera. */
+  static void recycleBuffer(FrameBufferPool pool, byte[] data, Camera camera) {
+    pool.release(data);
+    byte[] buffer = pool.acquire();
+    if (buffer != null) {
+      camera.addCallbackBuffer(buffer);
+    }
+  }
+
   // Since we're not calling setPreviewFormat(int), the data arrives here in the YCbCr_420_SP 
   // (NV21) format.
   @Override
@@ -56,6 +83,12 @@ final class PreviewCallback implements Camera.PreviewCallback {
           cameraResolution.y, data);
       message.sendToTarget();
       previewHandler = null;
+    } else if (cameraResolution != null && frameScheduler != null && data != null) {
+      frameScheduler.offerFrame(data, cameraResolution.x, cameraResolution.y);
+    } else if (bufferPool != null && data != null) {
+      // Nobody is waiting for this frame, so give the buffer straight back to the camera.
+      bufferPool.recordDrop();
+      recycleBuffer(bufferPool, data, camera);
     } else {
       Log.d(TAG, "Got preview callback, but no handler or resolution available");
     }
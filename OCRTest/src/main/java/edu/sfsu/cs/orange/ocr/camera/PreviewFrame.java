@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr.camera;
+
+/**
+ * A single preview frame handed from the camera to the decoder, along with its dimensions and the
+ * time it was captured.
+ */
+public final class PreviewFrame {
+  private final byte[] data;
+  private final int width;
+  private final int height;
+  private final long timestamp;
+  private long sequence;
+
+  PreviewFrame(byte[] data, int width, int height, long timestamp) {
+    this.data = data;
+    this.width = width;
+    this.height = height;
+    this.timestamp = timestamp;
+  }
+
+  /** @return The frame data, in the camera's preview format (NV21) */
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /** @return Time the frame was received from the camera, in milliseconds */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** @return Position of this frame in the order frames were sent for decoding */
+  public long getSequence() {
+    return sequence;
+  }
+
+  void setSequence(long sequence) {
+    this.sequence = sequence;
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the download pipeline against a local server, checking the inflated output, what is left on
+ * storage when the gzip data is damaged, and how a download dropped partway is resumed.
+ */
+public class LanguageDataDownloaderTest {
+
+  private static final String FIXTURE = "sample.txt.gz";
+
+  /** Size of the ranges the downloader splits files into. */
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  /** Number of body bytes sent before a connection is dropped. */
+  private static final int BYTES_BEFORE_DROP = 2000;
+
+  private static final LanguageDataDownloader.ProgressListener NO_PROGRESS =
+      new LanguageDataDownloader.ProgressListener() {
+        @Override
+        public void onProgress(int percentComplete) {
+        }
+      };
+
+  private static final LanguageDataDownloader.CancellationFlag NOT_CANCELLED =
+      new LanguageDataDownloader.CancellationFlag() {
+        @Override
+        public boolean isCancelled() {
+          return false;
+        }
+      };
+
+  private File directory;
+  private File destinationFile;
+  private LocalFileServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile("download", "");
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+    destinationFile = new File(directory, "sample.txt");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.shutdown();
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void inflatesFixtureDownloadedInRanges() throws IOException {
+    byte[] compressed = readFixture();
+    server = new LocalFileServer(compressed, "\"v1\"");
+
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    assertArrayEquals(gunzip(compressed), readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  @Test
+  public void inflatesFixtureFromServerIgnoringRanges() throws IOException {
+    byte[] compressed = readFixture();
+    server = new LocalFileServer(compressed, null);
+    server.setWholeFileSentForNewDownloads(true);
+
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    assertArrayEquals(gunzip(compressed), readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  @Test
+  public void corruptTrailerFailsAndLeavesNothingBehind() throws IOException {
+    byte[] compressed = readFixture();
+    // The trailer holds the CRC-32 of the data, then its length
+    compressed[compressed.length - 8] ^= 0xff;
+    server = new LocalFileServer(compressed, null);
+    server.setWholeFileSentForNewDownloads(true);
+
+    assertDownloadFailsWithZipException();
+    assertEquals(1, server.getRequests().size());
+  }
+
+  @Test
+  public void corruptTrailerInRangesFailsAndLeavesNothingBehind() throws IOException {
+    byte[] compressed = readFixture();
+    compressed[compressed.length - 1] ^= 0xff;
+    server = new LocalFileServer(compressed, "\"v1\"");
+
+    assertDownloadFailsWithZipException();
+    assertEquals(1, server.getRequests().size());
+  }
+
+  @Test
+  public void truncatedTrailerFailsAndLeavesNothingBehind() throws IOException {
+    byte[] compressed = readFixture();
+    // The server's copy itself is cut short, so every range arrives in full
+    server = new LocalFileServer(Arrays.copyOf(compressed, compressed.length - 4), "\"v1\"");
+
+    assertDownloadFailsWithZipException();
+    assertEquals(1, server.getRequests().size());
+  }
+
+  @Test
+  public void resumesStreamedDownloadWithRangeAndIfRange() throws IOException {
+    byte[] compressed = readFixture();
+    server = new LocalFileServer(compressed, "\"v1\"");
+    server.setWholeFileSentForNewDownloads(true);
+    server.dropNextResponse(0, BYTES_BEFORE_DROP);
+
+    long savedLength = downloadUntilDropped();
+    Properties journal = readJournal();
+    assertEquals(server.getUrl("/" + FIXTURE).toString(), journal.getProperty("url"));
+    assertEquals(Integer.toString(compressed.length), journal.getProperty("length"));
+    assertEquals("\"v1\"", journal.getProperty("validator"));
+    assertNull(journal.getProperty("chunkSize"));
+    assertArrayEquals(Arrays.copyOf(compressed, (int) savedLength), readFile(getSavedFile()));
+    assertFalse(new File(destinationFile.getPath() + LanguageDataDownloader.PARTIAL_SUFFIX)
+        .exists());
+
+    // A later run asks for the rest of the same file only
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    List<LocalFileServer.Request> requests = server.getRequests();
+    assertEquals(2, requests.size());
+    assertEquals("bytes=" + savedLength + "-", requests.get(1).getHeader("Range"));
+    assertEquals("\"v1\"", requests.get(1).getHeader("If-Range"));
+    assertArrayEquals(gunzip(compressed), readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  @Test
+  public void restartsWhenFileChangedSinceDrop() throws IOException {
+    server = new LocalFileServer(readFixture(), "\"v1\"");
+    server.setWholeFileSentForNewDownloads(true);
+    server.dropNextResponse(0, BYTES_BEFORE_DROP);
+    downloadUntilDropped();
+
+    byte[] changed = "Updated language data\n".getBytes("UTF-8");
+    server.setContent(gzip(changed), "\"v2\"");
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    // If-Range makes the server send the whole new file, which replaces the saved bytes
+    List<LocalFileServer.Request> requests = server.getRequests();
+    assertEquals(2, requests.size());
+    assertEquals("\"v1\"", requests.get(1).getHeader("If-Range"));
+    assertArrayEquals(changed, readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  @Test
+  public void discardsSavedBytesWhenRangeNotSatisfiable() throws IOException {
+    // Without a validator, a file that shrank is only noticed through the 416 response
+    server = new LocalFileServer(readFixture(), null);
+    server.setWholeFileSentForNewDownloads(true);
+    server.dropNextResponse(0, BYTES_BEFORE_DROP);
+    long savedLength = downloadUntilDropped();
+    assertNull(readJournal().getProperty("validator"));
+
+    byte[] changed = "Short\n".getBytes("UTF-8");
+    byte[] changedCompressed = gzip(changed);
+    assertTrue("Too few bytes saved to test with: " + savedLength,
+        savedLength > changedCompressed.length);
+    server.setContent(changedCompressed, null);
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    List<LocalFileServer.Request> requests = server.getRequests();
+    assertEquals(3, requests.size());
+    assertEquals("bytes=" + savedLength + "-", requests.get(1).getHeader("Range"));
+    assertNull(requests.get(1).getHeader("If-Range"));
+    // After the 416 the saved bytes are gone, and the retry starts a new download
+    assertEquals("bytes=0-" + (CHUNK_SIZE - 1), requests.get(2).getHeader("Range"));
+    assertArrayEquals(changed, readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  @Test
+  public void resumesRangesRecordedInJournal() throws IOException {
+    // Random data does not compress, so the file spans two ranges
+    byte[] data = new byte[CHUNK_SIZE + CHUNK_SIZE / 2];
+    new Random(1).nextBytes(data);
+    byte[] compressed = gzip(data);
+    server = new LocalFileServer(compressed, "\"v1\"");
+    server.dropNextResponse(CHUNK_SIZE, BYTES_BEFORE_DROP);
+
+    downloadUntilDropped();
+    Properties journal = readJournal();
+    assertEquals(Integer.toString(compressed.length), journal.getProperty("length"));
+    assertEquals("\"v1\"", journal.getProperty("validator"));
+    assertEquals(Integer.toString(CHUNK_SIZE), journal.getProperty("chunkSize"));
+    assertEquals("0", journal.getProperty("completedChunks"));
+    // The saved file is sized for the whole download, with each range written at its offset
+    assertEquals(compressed.length, getSavedFile().length());
+
+    assertTrue(newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile));
+
+    List<LocalFileServer.Request> requests = server.getRequests();
+    assertEquals(3, requests.size());
+    assertEquals("bytes=" + CHUNK_SIZE + "-" + (compressed.length - 1),
+        requests.get(2).getHeader("Range"));
+    assertEquals("\"v1\"", requests.get(2).getHeader("If-Range"));
+    assertArrayEquals(data, readFile(destinationFile));
+    assertOnlyDestinationLeft();
+  }
+
+  /**
+   * Downloads until the server drops the connection, stopping there as if the app had been closed.
+   *
+   * @return Number of compressed bytes saved
+   */
+  private long downloadUntilDropped() throws IOException {
+    LanguageDataDownloader downloader = new LanguageDataDownloader(NO_PROGRESS,
+        new LanguageDataDownloader.CancellationFlag() {
+          @Override
+          public boolean isCancelled() {
+            return server.getDropCount() > 0;
+          }
+        });
+    try {
+      downloader.downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile);
+      fail("Expected the download to stop when the connection dropped");
+    } catch (IOException expected) {
+      // The bytes received so far stay saved
+    }
+    assertEquals(1, server.getDropCount());
+    assertFalse(destinationFile.exists());
+    assertTrue(getSavedFile().exists());
+    return getSavedFile().length();
+  }
+
+  private File getSavedFile() {
+    return new File(destinationFile.getPath() + ".gz" + LanguageDataDownloader.PARTIAL_SUFFIX);
+  }
+
+  private Properties readJournal() throws IOException {
+    Properties properties = new Properties();
+    InputStream inputStream = new FileInputStream(destinationFile.getPath() + ".gz.journal");
+    try {
+      properties.load(inputStream);
+    } finally {
+      inputStream.close();
+    }
+    return properties;
+  }
+
+  private void assertDownloadFailsWithZipException() throws IOException {
+    try {
+      newDownloader().downloadGzipped(server.getUrl("/" + FIXTURE), destinationFile);
+      fail("Expected the gzip check to fail");
+    } catch (ZipException expected) {
+      // The partial file, saved bytes and journal are all deleted
+    }
+    assertFalse(destinationFile.exists());
+    assertEquals(0, directory.list().length);
+  }
+
+  private void assertOnlyDestinationLeft() {
+    assertEquals(Arrays.asList(destinationFile.getName()), Arrays.asList(directory.list()));
+  }
+
+  private static LanguageDataDownloader newDownloader() {
+    return new LanguageDataDownloader(NO_PROGRESS, NOT_CANCELLED);
+  }
+
+  private byte[] readFixture() throws IOException {
+    InputStream inputStream = getClass().getResourceAsStream(FIXTURE);
+    assertTrue("Missing test resource " + FIXTURE, inputStream != null);
+    return readFully(inputStream);
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+    gzipOutputStream.write(data);
+    gzipOutputStream.close();
+    return outputStream.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    return readFully(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    return readFully(new FileInputStream(file));
+  }
+
+  private static byte[] readFully(InputStream inputStream) throws IOException {
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, n);
+      }
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves one file over HTTP on the loopback interface, standing in for the language data server in
+ * tests. Honours Range and If-Range like a typical static file server, and can be told to drop the
+ * connection partway through a response body, or to change the file, between requests.
+ */
+final class LocalFileServer {
+
+  /** Headers of a request received, by lower-case name. */
+  static final class Request {
+    final Map<String, String> headers;
+
+    Request(Map<String, String> headers) {
+      this.headers = headers;
+    }
+
+    String getHeader(String name) {
+      return headers.get(name.toLowerCase());
+    }
+  }
+
+  private final ServerSocket serverSocket;
+  private final Thread acceptThread;
+  private final List<Request> requests = new ArrayList<Request>();
+  private byte[] content;
+  private String eTag;
+  private boolean isWholeFileSentForNewDownloads;
+  private long dropRangeStart = -1;
+  private long dropAfterBytes;
+  private int dropCount;
+
+  /**
+   * Starts serving the given file.
+   *
+   * @param content The file to serve
+   * @param eTag Strong ETag of the file, or null to send none
+   */
+  LocalFileServer(byte[] content, String eTag) throws IOException {
+    this.content = content;
+    this.eTag = eTag;
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    acceptThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    }, "local-file-server");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  URL getUrl(String path) throws MalformedURLException {
+    return new URL("http", "127.0.0.1", serverSocket.getLocalPort(), path);
+  }
+
+  /** Replaces the file served, as if it had been updated on the server. */
+  synchronized void setContent(byte[] content, String eTag) {
+    this.content = content;
+    this.eTag = eTag;
+  }
+
+  /**
+   * Makes the server answer requests for a range starting at the beginning of the file with the
+   * whole file, as servers that ignore Range do, while still honouring ranges that resume a
+   * download.
+   */
+  synchronized void setWholeFileSentForNewDownloads(boolean isWholeFileSent) {
+    isWholeFileSentForNewDownloads = isWholeFileSent;
+  }
+
+  /**
+   * Makes the next response whose body starts at the given offset in the file close the connection
+   * after sending part of it.
+   *
+   * @param rangeStart Offset of the first byte of the response body in the file
+   * @param afterBytes Number of body bytes sent before the connection is closed
+   */
+  synchronized void dropNextResponse(long rangeStart, long afterBytes) {
+    dropRangeStart = rangeStart;
+    dropAfterBytes = afterBytes;
+  }
+
+  /** @return Number of responses cut short so far */
+  synchronized int getDropCount() {
+    return dropCount;
+  }
+
+  /** @return The requests received so far, in order */
+  synchronized List<Request> getRequests() {
+    return new ArrayList<Request>(requests);
+  }
+
+  void shutdown() throws IOException {
+    serverSocket.close();
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        return;
+      }
+      // Ranges of one file are requested at once, so each connection gets its own thread
+      Thread connectionThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            serve(socket);
+          } catch (IOException e) {
+            // The client went away
+          } finally {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // Continue
+            }
+          }
+        }
+      });
+      connectionThread.setDaemon(true);
+      connectionThread.start();
+    }
+  }
+
+  /** Answers one request, then closes the connection. */
+  private void serve(Socket socket) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        "ISO-8859-1"));
+    if (reader.readLine() == null) {
+      return;
+    }
+    Map<String, String> headers = new HashMap<String, String>();
+    String line;
+    while ((line = reader.readLine()) != null && line.length() > 0) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+      }
+    }
+    Request request = new Request(headers);
+
+    byte[] body;
+    String status;
+    String contentRange = null;
+    long first = 0;
+    boolean isDropped;
+    long bytesBeforeDrop;
+    String currentETag;
+    synchronized (this) {
+      requests.add(request);
+      currentETag = eTag;
+      body = content;
+      status = "200 OK";
+      String range = request.getHeader("Range");
+      String ifRange = request.getHeader("If-Range");
+      boolean isRangeValid = range != null && (ifRange == null || ifRange.equals(eTag));
+      if (isRangeValid) {
+        // For example "bytes=100-" or "bytes=0-1048575"
+        String spec = range.substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        first = Long.parseLong(spec.substring(0, dash));
+        long last = dash == spec.length() - 1 ? content.length - 1
+            : Math.min(Long.parseLong(spec.substring(dash + 1)), content.length - 1);
+        if (first >= content.length) {
+          writeHead(socket.getOutputStream(), "416 Range Not Satisfiable", 0, null,
+              "bytes */" + content.length);
+          return;
+        }
+        if (first > 0 || !isWholeFileSentForNewDownloads) {
+          body = new byte[(int) (last - first + 1)];
+          System.arraycopy(content, (int) first, body, 0, body.length);
+          status = "206 Partial Content";
+          contentRange = "bytes " + first + "-" + last + "/" + content.length;
+        } else {
+          first = 0;
+        }
+      } else {
+        first = 0;
+      }
+      isDropped = dropRangeStart == first;
+      bytesBeforeDrop = dropAfterBytes;
+      if (isDropped) {
+        dropRangeStart = -1;
+      }
+    }
+
+    OutputStream outputStream = socket.getOutputStream();
+    writeHead(outputStream, status, body.length, currentETag, contentRange);
+    if (isDropped) {
+      outputStream.write(body, 0, (int) bytesBeforeDrop);
+      outputStream.flush();
+      synchronized (this) {
+        dropCount++;
+      }
+      return;
+    }
+    outputStream.write(body);
+    outputStream.flush();
+  }
+
+  private static void writeHead(OutputStream outputStream, String status, long contentLength,
+      String eTag, String contentRange) throws IOException {
+    StringBuilder head = new StringBuilder();
+    head.append("HTTP/1.1 ").append(status).append("\r\n");
+    head.append("Content-Length: ").append(contentLength).append("\r\n");
+    head.append("Accept-Ranges: bytes\r\n");
+    if (eTag != null) {
+      head.append("ETag: ").append(eTag).append("\r\n");
+    }
+    if (contentRange != null) {
+      head.append("Content-Range: ").append(contentRange).append("\r\n");
+    }
+    head.append("Connection: close\r\n\r\n");
+    outputStream.write(head.toString().getBytes("ISO-8859-1"));
+  }
+}
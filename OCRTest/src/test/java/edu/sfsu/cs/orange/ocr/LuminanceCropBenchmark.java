@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading the luminance crop of a preview frame through a copy with reading it in place
+ * through the strided view of PlanarYUVLuminanceSource, the way the per-frame checks such as
+ * TextDetector and FocusEstimator do. Each benchmark visits every pixel of the crop once.
+ *
+ * Run with ./gradlew jmh -Pinclude=LuminanceCropBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LuminanceCropBenchmark {
+
+  /** Preview size, a common one for the back camera. */
+  private static final int FRAME_WIDTH = 1280;
+  private static final int FRAME_HEIGHT = 720;
+
+  @Param({ "false", "true" })
+  public boolean reversedHorizontally;
+
+  private PlanarYUVLuminanceSource source;
+  private byte[] matrix;
+
+  @Setup(Level.Trial)
+  public void createFrame() {
+    // An NV21 frame: the Y plane, then interleaved V and U at a quarter of the resolution
+    byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+    new Random(1).nextBytes(frame);
+
+    // A framing rectangle about the size that CameraManager sets up by default
+    int width = FRAME_WIDTH * 3 / 5;
+    int height = FRAME_HEIGHT / 3;
+    source = new PlanarYUVLuminanceSource(frame, FRAME_WIDTH, FRAME_HEIGHT,
+        (FRAME_WIDTH - width) / 2, (FRAME_HEIGHT - height) / 2, width, height,
+        reversedHorizontally);
+    matrix = new byte[width * height];
+  }
+
+  /** Copies the crop into a new array, then reads the copy. */
+  @Benchmark
+  public long allocatedCopy() {
+    return sum(source.getMatrix());
+  }
+
+  /** Copies the crop into an array reused from frame to frame, then reads the copy. */
+  @Benchmark
+  public long reusedCopy() {
+    return sum(source.copyMatrix(matrix));
+  }
+
+  /** Reads the crop in place, through the strided view. */
+  @Benchmark
+  public long stridedView() {
+    byte[] data = source.getData();
+    int offset = source.getOffset();
+    int rowStride = source.getRowStride();
+    int width = source.getWidth();
+    int height = source.getHeight();
+    long sum = 0;
+    for (int y = 0; y < height; y++) {
+      int rowStart = offset + y * rowStride;
+      for (int x = 0; x < width; x++) {
+        sum += data[rowStart + x] & 0xff;
+      }
+    }
+    return sum;
+  }
+
+  private long sum(byte[] luminance) {
+    int area = source.getWidth() * source.getHeight();
+    long sum = 0;
+    for (int i = 0; i < area; i++) {
+      sum += luminance[i] & 0xff;
+    }
+    return sum;
+  }
+}
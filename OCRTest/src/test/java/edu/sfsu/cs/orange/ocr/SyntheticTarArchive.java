@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.xeustechnologies.jtar.TarEntry;
+import org.xeustechnologies.jtar.TarOutputStream;
+
+/**
+ * Builds tar archives laid out like the downloaded language data, with several files of given sizes
+ * under a "tessdata" directory, for testing and benchmarking extraction.
+ */
+final class SyntheticTarArchive {
+
+  /** Directory the files are stored under in the archive. */
+  static final String DIRECTORY = "tessdata/";
+
+  private SyntheticTarArchive() {
+  }
+
+  /** @return Name of the file at the given index in archives built here */
+  static String getFileName(int index) {
+    return "file" + index + ".dat";
+  }
+
+  /**
+   * Writes an archive. The files hold pseudo-random bytes from a small alphabet, which compress
+   * moderately, the way language data does.
+   *
+   * @param archiveFile The archive to write
+   * @param workDir Directory to write the files to before they are archived
+   * @param fileSizes Size of each file, in bytes
+   * @param isGzipped Whether to gzip the archive
+   * @param seed Seed for the file contents
+   */
+  static void write(File archiveFile, File workDir, int[] fileSizes, boolean isGzipped, long seed)
+      throws IOException {
+    Random random = new Random(seed);
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(archiveFile));
+    if (isGzipped) {
+      outputStream = new GZIPOutputStream(outputStream);
+    }
+    TarOutputStream tarOutputStream = new TarOutputStream(outputStream);
+    try {
+      byte[] buffer = new byte[8192];
+      for (int i = 0; i < fileSizes.length; i++) {
+        File file = new File(workDir, getFileName(i));
+        writeFile(file, fileSizes[i], random);
+        tarOutputStream.putNextEntry(new TarEntry(file, DIRECTORY + file.getName()));
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+          int n;
+          while ((n = inputStream.read(buffer)) != -1) {
+            tarOutputStream.write(buffer, 0, n);
+          }
+        } finally {
+          inputStream.close();
+        }
+        file.delete();
+      }
+    } finally {
+      tarOutputStream.close();
+    }
+  }
+
+  /** @return The contents of the file at the given index of an archive written with the seed */
+  static byte[] getContents(int[] fileSizes, int index, long seed) {
+    Random random = new Random(seed);
+    byte[] contents = null;
+    for (int i = 0; i <= index; i++) {
+      contents = new byte[fileSizes[i]];
+      fill(contents, random);
+    }
+    return contents;
+  }
+
+  private static void writeFile(File file, int size, Random random) throws IOException {
+    byte[] contents = new byte[size];
+    fill(contents, random);
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(contents);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private static void fill(byte[] contents, Random random) {
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) ('a' + random.nextInt(16));
+    }
+  }
+}
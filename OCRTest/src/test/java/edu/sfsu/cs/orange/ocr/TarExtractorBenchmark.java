@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xeustechnologies.jtar.TarEntry;
+import org.xeustechnologies.jtar.TarInputStream;
+
+/**
+ * Compares TarExtractor with the extraction it replaced, which read the archive once to sum the
+ * sizes in the entry headers for progress, then again to extract each file through its own buffers.
+ * Runs on a synthetic archive of several files, stored plain and gzipped.
+ *
+ * Run with ./gradlew jmh -Pinclude=TarExtractorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TarExtractorBenchmark {
+
+  /** Sizes of the files in the archive, a few megabytes in all like a language's Cube data. */
+  private static final int[] FILE_SIZES = { 4 << 20, 2 << 20, 1 << 20, 1 << 20, 512 << 10,
+      256 << 10, 64 << 10, 8 << 10 };
+
+  @Param({ "false", "true" })
+  public boolean gzipped;
+
+  private File directory;
+  private File archiveFile;
+  private File outputDir;
+
+  @Setup(Level.Trial)
+  public void createArchive() throws IOException {
+    directory = File.createTempFile("untar", "");
+    directory.delete();
+    directory.mkdir();
+    archiveFile = new File(directory, "archive.tar");
+    outputDir = new File(directory, "out");
+    outputDir.mkdir();
+    SyntheticTarArchive.write(archiveFile, directory, FILE_SIZES, gzipped, 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFiles() {
+    for (File file : outputDir.listFiles()) {
+      file.delete();
+    }
+    outputDir.delete();
+    archiveFile.delete();
+    directory.delete();
+  }
+
+  @Benchmark
+  public long singlePass() throws IOException {
+    return new TarExtractor(null).extract(archiveFile, outputDir);
+  }
+
+  @Benchmark
+  public long twoPassBaseline() throws IOException {
+    long uncompressedSize = 0;
+    TarInputStream sizeStream = new TarInputStream(open());
+    try {
+      TarEntry entry;
+      while ((entry = sizeStream.getNextEntry()) != null) {
+        if (!entry.isDirectory()) {
+          uncompressedSize += entry.getSize();
+        }
+      }
+    } finally {
+      sizeStream.close();
+    }
+
+    long untarredBytes = 0;
+    int percentCompleteLast = 0;
+    TarInputStream tarInputStream = new TarInputStream(open());
+    try {
+      TarEntry entry;
+      while ((entry = tarInputStream.getNextEntry()) != null) {
+        String pathName = entry.getName();
+        String fileName = pathName.substring(pathName.lastIndexOf('/') + 1);
+        byte[] data = new byte[8192];
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(new File(
+            outputDir, fileName)));
+        try {
+          int len;
+          while ((len = tarInputStream.read(data, 0, data.length)) != -1) {
+            outputStream.write(data, 0, len);
+            untarredBytes += len;
+            int percentComplete = (int) (untarredBytes * 100 / uncompressedSize);
+            if (percentComplete > percentCompleteLast) {
+              percentCompleteLast = percentComplete;
+            }
+          }
+        } finally {
+          outputStream.close();
+        }
+      }
+    } finally {
+      tarInputStream.close();
+    }
+    return untarredBytes;
+  }
+
+  private InputStream open() throws IOException {
+    InputStream inputStream = new BufferedInputStream(new FileInputStream(archiveFile));
+    return gzipped ? new GZIPInputStream(inputStream) : inputStream;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TarExtractorTest {
+
+  // Sizes around the 512-byte tar block, plus an empty file and a larger one
+  private static final int[] FILE_SIZES = { 0, 1, 511, 512, 513, 300000 };
+  private static final long SEED = 1;
+
+  private File directory;
+  private File archiveFile;
+  private File outputDir;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile("untar", "");
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+    archiveFile = new File(directory, "archive.tar");
+    outputDir = new File(directory, "out");
+    assertTrue(outputDir.mkdir());
+  }
+
+  @After
+  public void tearDown() {
+    delete(directory);
+  }
+
+  @Test
+  public void extractsEveryFileOfPlainArchive() throws IOException {
+    SyntheticTarArchive.write(archiveFile, directory, FILE_SIZES, false, SEED);
+    assertEquals(sum(FILE_SIZES), new TarExtractor(null).extract(archiveFile, outputDir));
+    assertExtracted();
+    assertTrue(archiveFile.exists());
+  }
+
+  @Test
+  public void extractsEveryFileOfGzippedArchive() throws IOException {
+    SyntheticTarArchive.write(archiveFile, directory, FILE_SIZES, true, SEED);
+    assertTrue(TarExtractor.isGzipped(archiveFile));
+    assertEquals(sum(FILE_SIZES), new TarExtractor(null).extract(archiveFile, outputDir));
+    assertExtracted();
+  }
+
+  @Test
+  public void reportsIncreasingProgressUpToComplete() throws IOException {
+    SyntheticTarArchive.write(archiveFile, directory, FILE_SIZES, false, SEED);
+    final List<Integer> progress = new ArrayList<Integer>();
+    new TarExtractor(new TarExtractor.ProgressListener() {
+      @Override
+      public void onProgress(int percentComplete) {
+        progress.add(percentComplete);
+      }
+    }).extract(archiveFile, outputDir);
+
+    assertTrue(progress.size() > 0);
+    for (int i = 1; i < progress.size(); i++) {
+      assertTrue(progress.get(i) > progress.get(i - 1));
+    }
+    assertEquals(100, (int) progress.get(progress.size() - 1));
+  }
+
+  @Test
+  public void failsOnArchiveEndingInsideFile() throws IOException {
+    SyntheticTarArchive.write(archiveFile, directory, FILE_SIZES, false, SEED);
+    RandomAccessFile file = new RandomAccessFile(archiveFile, "rw");
+    try {
+      // Cut the archive halfway through the data of the last file
+      file.setLength(file.length() - FILE_SIZES[FILE_SIZES.length - 1] / 2);
+    } finally {
+      file.close();
+    }
+    try {
+      new TarExtractor(null).extract(archiveFile, outputDir);
+      fail("Expected the extraction to fail");
+    } catch (IOException expected) {
+    }
+  }
+
+  private void assertExtracted() throws IOException {
+    String[] names = outputDir.list();
+    assertEquals(FILE_SIZES.length, names.length);
+    for (int i = 0; i < FILE_SIZES.length; i++) {
+      File file = new File(outputDir, SyntheticTarArchive.getFileName(i));
+      assertArrayEquals(SyntheticTarArchive.getContents(FILE_SIZES, i, SEED), readFile(file));
+    }
+  }
+
+  private static long sum(int[] values) {
+    long sum = 0;
+    for (int value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    InputStream inputStream = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, n);
+      }
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.sfsu.cs.orange.ocr.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class FrameBufferPoolTest {
+
+  private static final int CAPACITY = 3;
+  private static final int BUFFER_SIZE = 16;
+
+  private final FrameBufferPool pool = new FrameBufferPool(CAPACITY, BUFFER_SIZE);
+
+  @Test
+  public void acquireAllocatesUpToCapacity() {
+    for (int i = 0; i < CAPACITY; i++) {
+      byte[] buffer = pool.acquire();
+      assertNotNull(buffer);
+      assertEquals(BUFFER_SIZE, buffer.length);
+    }
+    assertNull(pool.acquire());
+    assertEquals(CAPACITY, pool.getBuffersInFlight());
+  }
+
+  @Test
+  public void releasedBufferIsReused() {
+    byte[] buffer = pool.acquire();
+    pool.release(buffer);
+    assertEquals(0, pool.getBuffersInFlight());
+    assertSame(buffer, pool.acquire());
+    assertEquals(0.5f, pool.getReuseRate(), 0f);
+  }
+
+  @Test
+  public void reuseRateIsZeroBeforeAnyAcquisition() {
+    assertEquals(0f, pool.getReuseRate(), 0f);
+  }
+
+  @Test
+  public void releaseOfForeignBufferIsRejected() {
+    pool.acquire();
+    pool.release(new byte[BUFFER_SIZE]);
+    pool.release(null);
+    assertEquals(2, pool.getRejectedReleaseCount());
+    assertEquals(1, pool.getBuffersInFlight());
+  }
+
+  @Test
+  public void releaseOfSameBufferTwiceIsRejected() {
+    byte[] buffer = pool.acquire();
+    pool.release(buffer);
+    pool.release(buffer);
+    assertEquals(1, pool.getRejectedReleaseCount());
+    // The buffer must be in the free list only once
+    assertSame(buffer, pool.acquire());
+    assertNotSame(buffer, pool.acquire());
+  }
+
+  @Test
+  public void resetMakesRoomForReplacements() {
+    for (int i = 0; i < CAPACITY; i++) {
+      pool.acquire();
+    }
+    assertNull(pool.acquire());
+    pool.reset();
+    assertEquals(0, pool.getBuffersInFlight());
+    for (int i = 0; i < CAPACITY; i++) {
+      assertNotNull(pool.acquire());
+    }
+    assertNull(pool.acquire());
+  }
+
+  @Test
+  public void staleBufferReleasedAfterResetIsRejected() {
+    byte[] stale = pool.acquire();
+    byte[] kept = pool.acquire();
+    pool.release(kept);
+    pool.reset();
+    pool.release(stale);
+    assertEquals(1, pool.getRejectedReleaseCount());
+    assertEquals(0, pool.getBuffersInFlight());
+
+    // The stale buffer was not put back, so it is never handed out again
+    for (int i = 0; i < CAPACITY; i++) {
+      assertNotSame(stale, pool.acquire());
+    }
+    assertNull(pool.acquire());
+  }
+
+  @Test
+  public void dropsAreCounted() {
+    pool.recordDrop();
+    pool.recordDrop();
+    assertEquals(2, pool.getDropCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroCapacityIsRejected() {
+    new FrameBufferPool(0, BUFFER_SIZE);
+  }
+}